@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2025 Jerome Blanchard <jayblanc@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package fr.jayblanc.mbyte.store.api.content;
+
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * A satisfiable byte range of a representation as defined by RFC 9110 section 14.
+ *
+ * @author Jerome Blanchard
+ */
+public class ByteRange {
+
+    public static final String UNIT = "bytes";
+    public static final int MAX_RANGES = 32;
+
+    private static final DateTimeFormatter HTTP_DATE = DateTimeFormatter.ofPattern("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US).withZone(ZoneOffset.UTC);
+
+    private final long start;
+    private final long end;
+
+    public ByteRange(long start, long end) {
+        this.start = start;
+        this.end = end;
+    }
+
+    public long getStart() {
+        return start;
+    }
+
+    public long getEnd() {
+        return end;
+    }
+
+    public long getLength() {
+        return end - start + 1;
+    }
+
+    public String toContentRange(long size) {
+        return UNIT + " " + start + "-" + end + "/" + size;
+    }
+
+    public static String unsatisfiedContentRange(long size) {
+        return UNIT + " */" + size;
+    }
+
+    /**
+     * Parses a Range header against a representation of the given size.
+     *
+     * @return null if the header is absent, malformed or abusive and must be ignored (full content is served), an empty
+     * list if none of the ranges is satisfiable, otherwise the satisfiable ranges in requested order.
+     */
+    public static List<ByteRange> parse(String header, long size) {
+        if (header == null || !header.startsWith(UNIT + "=")) {
+            return null;
+        }
+        String[] specs = header.substring(UNIT.length() + 1).split(",");
+        if (specs.length > MAX_RANGES) {
+            return null;
+        }
+        List<ByteRange> ranges = new ArrayList<>();
+        for (String spec : specs) {
+            spec = spec.trim();
+            int dash = spec.indexOf('-');
+            if (dash < 0) {
+                return null;
+            }
+            try {
+                String first = spec.substring(0, dash).trim();
+                String last = spec.substring(dash + 1).trim();
+                if (first.isEmpty()) {
+                    long suffix = Long.parseLong(last);
+                    if (suffix < 0) {
+                        return null;
+                    }
+                    if (suffix > 0 && size > 0) {
+                        ranges.add(new ByteRange(Math.max(0, size - suffix), size - 1));
+                    }
+                } else {
+                    long start = Long.parseLong(first);
+                    long end = last.isEmpty() ? Long.MAX_VALUE : Long.parseLong(last);
+                    if (start < 0 || end < start) {
+                        return null;
+                    }
+                    if (start < size) {
+                        ranges.add(new ByteRange(start, Math.min(end, size - 1)));
+                    }
+                }
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+        return ranges;
+    }
+
+    /**
+     * Evaluates an If-Range precondition.
+     *
+     * @param header the If-Range header value, may be null
+     * @param etag the current strong entity tag of the representation (quoted), may be null
+     * @param modification the current last modification date of the representation in milliseconds
+     * @return true if the Range header must be honoured
+     */
+    public static boolean ifRange(String header, String etag, long modification) {
+        if (header == null || header.isBlank()) {
+            return true;
+        }
+        header = header.trim();
+        if (header.startsWith("\"")) {
+            return header.equals(etag);
+        }
+        if (header.startsWith("W/")) {
+            return false;
+        }
+        try {
+            long date = ZonedDateTime.parse(header, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+            return date == (modification / 1000) * 1000;
+        } catch (DateTimeParseException e) {
+            return false;
+        }
+    }
+
+    public static String httpDate(long millis) {
+        return HTTP_DATE.format(Instant.ofEpochMilli(millis));
+    }
+
+    @Override
+    public String toString() {
+        return UNIT + "=" + start + "-" + end;
+    }
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright (C) 2025 Jerome Blanchard <jayblanc@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package fr.jayblanc.mbyte.store.api.content;
+
+import fr.jayblanc.mbyte.store.data.DataStore;
+import fr.jayblanc.mbyte.store.data.exception.DataNotFoundException;
+import fr.jayblanc.mbyte.store.data.exception.DataStoreException;
+import fr.jayblanc.mbyte.store.files.entity.Node;
+import fr.jayblanc.mbyte.store.metrics.MetricsService;
+import jakarta.ws.rs.core.Response;
+import jakarta.ws.rs.core.StreamingOutput;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Builds the HTTP response carrying the content of a BLOB node, honouring conditional (If-None-Match, If-Range) and
+ * partial (Range) requests.
+ * <p>
+ * The entity tag of a content is its content key: blobs are content addressed so the tag is strong and never changes
+ * for a given body.
+ * <p>
+ * The node is expected to be already loaded: content is read from the data store by its key, so streaming the body,
+ * however long it takes, never needs a transaction nor a database connection. Served bodies, complete or partial, are
+ * counted as downloads like the zero-copy route does.
+ *
+ * @author Jerome Blanchard
+ */
+public class ContentResponseBuilder {
+
+    public static final String REVALIDATE = "private, no-cache";
+
+    private final DataStore datastore;
+    private final MetricsService metrics;
+    private final Node node;
+    private final String etag;
+    private boolean download = false;
+    private String range;
+    private String ifRange;
+    private String ifNoneMatch;
+    private String cacheControl = REVALIDATE;
+
+    private ContentResponseBuilder(DataStore datastore, MetricsService metrics, Node node) {
+        this.datastore = datastore;
+        this.metrics = metrics;
+        this.node = node;
+        this.etag = etag(node);
+    }
+
+    public static ContentResponseBuilder content(DataStore datastore, MetricsService metrics, Node node) {
+        return new ContentResponseBuilder(datastore, metrics, node);
+    }
+
+    public ContentResponseBuilder download(boolean download) {
+        this.download = download;
+        return this;
+    }
+
+    public ContentResponseBuilder range(String range, String ifRange) {
+        this.range = range;
+        this.ifRange = ifRange;
+        return this;
+    }
+
+    public ContentResponseBuilder ifNoneMatch(String ifNoneMatch) {
+        this.ifNoneMatch = ifNoneMatch;
+        return this;
+    }
+
+    public ContentResponseBuilder cacheControl(String cacheControl) {
+        this.cacheControl = cacheControl;
+        return this;
+    }
+
+    public Response build() throws DataNotFoundException, DataStoreException {
+        if (ifNoneMatch(ifNoneMatch, etag)) {
+            return Response.notModified().header("ETag", etag).header("Cache-Control", cacheControl).build();
+        }
+        List<ByteRange> ranges = ByteRange.ifRange(ifRange, etag, node.getModification()) ? ByteRange.parse(range, node.getSize()) : null;
+        if (ranges != null && ranges.isEmpty()) {
+            return Response.status(Response.Status.REQUESTED_RANGE_NOT_SATISFIABLE)
+                    .header("Content-Range", ByteRange.unsatisfiedContentRange(node.getSize())).build();
+        }
+        metrics.incMetric("download");
+        if (ranges == null) {
+            return this.headers(Response.ok(datastore.get(node.getContent())))
+                    .header("Content-Type", node.getMimetype())
+                    .header("Content-Length", node.getSize()).build();
+        }
+        if (ranges.size() == 1) {
+            ByteRange part = ranges.get(0);
+            return this.headers(Response.status(Response.Status.PARTIAL_CONTENT))
+                    .entity(datastore.get(node.getContent(), part.getStart(), part.getLength()))
+                    .header("Content-Type", node.getMimetype())
+                    .header("Content-Length", part.getLength())
+                    .header("Content-Range", part.toContentRange(node.getSize())).build();
+        }
+        String boundary = UUID.randomUUID().toString().replace("-", "");
+        StreamingOutput parts = output -> {
+            for (ByteRange part : ranges) {
+                String headers = "--" + boundary + "\r\n"
+                        + "Content-Type: " + node.getMimetype() + "\r\n"
+                        + "Content-Range: " + part.toContentRange(node.getSize()) + "\r\n\r\n";
+                output.write(headers.getBytes(StandardCharsets.US_ASCII));
+                try (InputStream is = datastore.get(node.getContent(), part.getStart(), part.getLength())) {
+                    is.transferTo(output);
+                } catch (DataNotFoundException | DataStoreException e) {
+                    throw new IOException("unable to read range " + part + " of node " + node.getId(), e);
+                }
+                output.write("\r\n".getBytes(StandardCharsets.US_ASCII));
+            }
+            output.write(("--" + boundary + "--\r\n").getBytes(StandardCharsets.US_ASCII));
+        };
+        return this.headers(Response.status(Response.Status.PARTIAL_CONTENT)).entity(parts)
+                .header("Content-Type", "multipart/byteranges; boundary=" + boundary).build();
+    }
+
+    private Response.ResponseBuilder headers(Response.ResponseBuilder builder) {
+        return builder.header("Accept-Ranges", ByteRange.UNIT)
+                .header("ETag", etag)
+                .header("Cache-Control", cacheControl)
+                .lastModified(new Date(node.getModification()))
+                .header("Content-Disposition", disposition(download, node.getName()));
+    }
+
+    /**
+     * Builds a Content-Disposition value carrying the file name both as a quoted ASCII fallback and, as defined by RFC
+     * 6266, percent encoded in UTF-8 so that any node name is transmitted safely.
+     */
+    public static String disposition(boolean download, String name) {
+        String fallback = name.replaceAll("[^\\x20-\\x7e]|[\"\\\\]", "_");
+        StringBuilder encoded = new StringBuilder();
+        for (byte b : name.getBytes(StandardCharsets.UTF_8)) {
+            char c = (char) (b & 0xff);
+            if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || "!#$&+-.^_`|~".indexOf(c) >= 0) {
+                encoded.append(c);
+            } else {
+                encoded.append('%').append(String.format("%02X", (int) c));
+            }
+        }
+        return ((download) ? "attachment" : "inline") + "; filename=\"" + fallback + "\"; filename*=UTF-8''" + encoded;
+    }
+
+    public static String etag(Node node) {
+        return "\"" + node.getContent() + "\"";
+    }
+
+    /**
+     * Evaluates an If-None-Match precondition using the weak comparison function required by RFC 9110 section 13.1.2.
+     *
+     * @return true if one of the listed tags matches, meaning that the client copy is still valid
+     */
+    public static boolean ifNoneMatch(String header, String etag) {
+        if (header == null || header.isBlank()) {
+            return false;
+        }
+        for (String tag : header.split(",")) {
+            tag = tag.trim();
+            if (tag.equals("*")) {
+                return true;
+            }
+            if (tag.startsWith("W/")) {
+                tag = tag.substring(2);
+            }
+            if (tag.equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+}
@@ -29,6 +29,7 @@ public class NodeDto {
     private String name;
     private String mimetype;
     private long size;
+    private String content;
     private Date creation;
     private Date modification;
 
@@ -43,6 +44,7 @@ public class NodeDto {
         dto.name = node.getName();
         dto.mimetype = node.getMimetype();
         dto.size = node.getSize();
+        dto.content = node.getContent();
         dto.creation = new Date(node.getCreation());
         dto.modification = new Date(node.getModification());
         return dto;
@@ -108,6 +110,14 @@ public class NodeDto {
         this.size = size;
     }
 
+    public String getContent() {
+        return content;
+    }
+
+    public void setContent(String content) {
+        this.content = content;
+    }
+
     public Date getCreation() {
         return creation;
     }
@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2025 Jerome Blanchard <jayblanc@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package fr.jayblanc.mbyte.store.api.resources;
+
+import fr.jayblanc.mbyte.store.api.content.ContentResponseBuilder;
+import fr.jayblanc.mbyte.store.api.filter.OnlyOwner;
+import fr.jayblanc.mbyte.store.data.DataStore;
+import fr.jayblanc.mbyte.store.data.DataStoreConfig;
+import fr.jayblanc.mbyte.store.data.exception.DataNotFoundException;
+import fr.jayblanc.mbyte.store.data.exception.DataStoreException;
+import fr.jayblanc.mbyte.store.files.FileService;
+import fr.jayblanc.mbyte.store.files.entity.Node;
+import fr.jayblanc.mbyte.store.files.exceptions.NodeNotFoundException;
+import fr.jayblanc.mbyte.store.files.exceptions.NodeTypeException;
+import fr.jayblanc.mbyte.store.metrics.MetricsService;
+import jakarta.inject.Inject;
+import jakarta.ws.rs.*;
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Response;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Immutable, content addressed access to stored blobs. A blob URL never changes of body so responses are cacheable
+ * forever.
+ *
+ * @author Jerome Blanchard
+ */
+@Path("blobs")
+@OnlyOwner
+public class BlobsResource {
+
+    private static final Logger LOGGER = Logger.getLogger(BlobsResource.class.getName());
+
+    @Inject FileService service;
+    @Inject DataStoreConfig config;
+    @Inject DataStore datastore;
+    @Inject MetricsService metrics;
+
+    @GET
+    @Path("{hash}")
+    @Produces(MediaType.WILDCARD)
+    public Response content(@PathParam("hash") final String hash, @QueryParam("download") @DefaultValue("false") final boolean download,
+            @HeaderParam("Range") final String range, @HeaderParam("If-Range") final String ifRange,
+            @HeaderParam("If-None-Match") final String ifNoneMatch) throws NodeNotFoundException, NodeTypeException, DataNotFoundException, DataStoreException {
+        LOGGER.log(Level.INFO, "GET /api/blobs/{0}", hash);
+        Node node = service.findByContent(hash);
+        return ContentResponseBuilder.content(datastore, metrics, node).download(download).range(range, ifRange).ifNoneMatch(ifNoneMatch)
+                .cacheControl(config.cacheControl()).build();
+    }
+
+}
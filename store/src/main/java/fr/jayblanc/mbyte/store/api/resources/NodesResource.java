@@ -17,16 +17,23 @@
 package fr.jayblanc.mbyte.store.api.resources;
 
 import fr.jayblanc.mbyte.store.api.dto.CollectionDto;
+import fr.jayblanc.mbyte.store.api.dto.ErrorDto;
 import fr.jayblanc.mbyte.store.api.dto.NodeCreateDto;
 import fr.jayblanc.mbyte.store.api.dto.NodeDto;
 import fr.jayblanc.mbyte.store.api.filter.OnlyOwner;
+import fr.jayblanc.mbyte.store.api.content.ContentResponseBuilder;
 import fr.jayblanc.mbyte.store.auth.AuthenticationService;
+import fr.jayblanc.mbyte.store.data.DataStore;
 import fr.jayblanc.mbyte.store.data.exception.DataNotFoundException;
 import fr.jayblanc.mbyte.store.data.exception.DataStoreException;
 import fr.jayblanc.mbyte.store.files.FileService;
+import fr.jayblanc.mbyte.store.files.ListingConfig;
 import fr.jayblanc.mbyte.store.files.entity.Node;
 import fr.jayblanc.mbyte.store.files.exceptions.*;
+import fr.jayblanc.mbyte.store.metrics.MetricsService;
 import fr.jayblanc.mbyte.store.notification.NotificationServiceException;
+import fr.jayblanc.mbyte.store.preview.PreviewConfig;
+import fr.jayblanc.mbyte.store.preview.PreviewService;
 import jakarta.inject.Inject;
 import jakarta.transaction.Transactional;
 import jakarta.validation.Valid;
@@ -34,13 +41,16 @@ import jakarta.ws.rs.*;
 import jakarta.ws.rs.core.Context;
 import jakarta.ws.rs.core.MediaType;
 import jakarta.ws.rs.core.Response;
+import jakarta.ws.rs.core.StreamingOutput;
 import jakarta.ws.rs.core.UriInfo;
 import org.jboss.resteasy.annotations.providers.multipart.MultipartForm;
 
 import java.io.ByteArrayInputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.net.URI;
 import java.util.List;
+import java.util.Locale;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -51,6 +61,11 @@ public class NodesResource {
     private static final Logger LOGGER = Logger.getLogger(NodesResource.class.getName());
 
     @Inject FileService service;
+    @Inject DataStore datastore;
+    @Inject PreviewService previews;
+    @Inject PreviewConfig previewConfig;
+    @Inject ListingConfig listing;
+    @Inject MetricsService metrics;
 
     @GET
     @Transactional(Transactional.TxType.REQUIRED)
@@ -82,37 +97,91 @@ public class NodesResource {
 
     @GET
     @Path("{id}/content")
-    @Transactional(Transactional.TxType.REQUIRED)
     @Produces(MediaType.WILDCARD)
-    public Response content(@PathParam("id") final String id, @QueryParam("download") @DefaultValue("false") final boolean download) throws NodeNotFoundException, NodeTypeException,
-            DataNotFoundException, DataStoreException {
+    public Response content(@PathParam("id") final String id, @QueryParam("download") @DefaultValue("false") final boolean download,
+            @HeaderParam("Range") final String range, @HeaderParam("If-Range") final String ifRange,
+            @HeaderParam("If-None-Match") final String ifNoneMatch) throws NodeNotFoundException, NodeTypeException, DataNotFoundException, DataStoreException {
         LOGGER.log(Level.INFO, "GET /api/nodes/{0}/content", id);
         Node node = service.get(id);
         if (node.getType().equals(Node.Type.BLOB)) {
-            return Response.ok(service.getContent(id))
-                    .header("Content-Type", node.getMimetype())
-                    .header("Content-Length", node.getSize())
-                    .header("Content-Disposition", ((download) ? "attachment; " : "") + "filename=" + node.getName()).build();
+            return ContentResponseBuilder.content(datastore, metrics, node).download(download).range(range, ifRange).ifNoneMatch(ifNoneMatch).build();
         } else {
             throw new NodeTypeException("Node is not a file");
         }
     }
 
+    @GET
+    @Path("{id}/preview")
+    @Produces({PreviewService.PREVIEW_MIMETYPE, MediaType.APPLICATION_JSON})
+    public Response preview(@PathParam("id") final String id, @HeaderParam("If-None-Match") final String ifNoneMatch) throws NodeNotFoundException,
+            NodeTypeException, DataNotFoundException, DataStoreException {
+        LOGGER.log(Level.INFO, "GET /api/nodes/{0}/preview", id);
+        Node node = service.get(id);
+        if (!node.getType().equals(Node.Type.BLOB)) {
+            throw new NodeTypeException("Node is not a file");
+        }
+        String etag = "\"" + node.getContent() + "-preview-" + previewConfig.size() + "\"";
+        if (previews.supports(node.getMimetype()) && ContentResponseBuilder.ifNoneMatch(ifNoneMatch, etag)) {
+            return Response.notModified().header("ETag", etag).header("Cache-Control", ContentResponseBuilder.REVALIDATE).build();
+        }
+        java.nio.file.Path file = previews.preview(node.getContent(), node.getMimetype());
+        if (file == null) {
+            ErrorDto dto = new ErrorDto("preview.unavailable", "no preview available for node: " + id);
+            return Response.status(Response.Status.NOT_FOUND).entity(dto).type(MediaType.APPLICATION_JSON).build();
+        }
+        return Response.ok(file.toFile(), PreviewService.PREVIEW_MIMETYPE).header("ETag", etag)
+                .header("Cache-Control", ContentResponseBuilder.REVALIDATE).build();
+    }
+
+    @GET
+    @Path("{id}/archive")
+    @Produces("application/zip")
+    public Response archive(@PathParam("id") final String id) throws NodeNotFoundException, NodeTypeException {
+        LOGGER.log(Level.INFO, "GET /api/nodes/{0}/archive", id);
+        Node node = service.get(id);
+        if (!node.getType().equals(Node.Type.TREE)) {
+            throw new NodeTypeException("Node is not a directory");
+        }
+        StreamingOutput archive = output -> {
+            try {
+                service.archive(node.getId(), output);
+            } catch (NodeNotFoundException | NodeTypeException e) {
+                throw new IOException("unable to archive node " + node.getId(), e);
+            }
+        };
+        return Response.ok(archive, "application/zip")
+                .header("Content-Disposition", ContentResponseBuilder.disposition(true, node.getName() + ".zip"))
+                .header("Cache-Control", "no-store").build();
+    }
+
     @GET
     @Path("{id}/children")
     @Transactional(Transactional.TxType.REQUIRED)
     @Produces(MediaType.APPLICATION_JSON)
-    public Response children(@PathParam("id") final String id, @QueryParam("limit") @DefaultValue("20") int limit, @QueryParam("offset") @DefaultValue("0") int offset) throws NodeNotFoundException,
-            NodeTypeException {
+    public Response children(@PathParam("id") final String id, @QueryParam("limit") @DefaultValue("20") int limit, @QueryParam("offset") @DefaultValue("0") int offset,
+            @QueryParam("sort") @DefaultValue("name") String sort, @QueryParam("order") @DefaultValue("asc") String order,
+            @QueryParam("cursor") String cursor) throws NodeNotFoundException, NodeTypeException {
         LOGGER.log(Level.INFO, "GET /api/nodes/{0}/children", id);
         Node node = service.get(id);
         if (node.getType().equals(Node.Type.TREE)) {
-            CollectionDto<NodeDto> dto = new CollectionDto<>(limit, offset);
-            List<Node> nodes = service.list(node.getId());
-            dto.setValues(nodes.stream().skip(offset).limit(limit).map(NodeDto::fromNode).toList());
-            dto.setSize(nodes.size());
-            dto.setLimit(limit);
+            FileService.Sort by;
+            List<Node> nodes;
+            int pageLimit = Math.min(Math.max(limit, 1), listing.limit());
+            try {
+                by = FileService.Sort.valueOf(sort.toUpperCase(Locale.ROOT));
+                nodes = service.list(node.getId(), by, order.equalsIgnoreCase("desc"), cursor, Math.max(offset, 0), pageLimit);
+            } catch (IllegalArgumentException e) {
+                ErrorDto error = new ErrorDto("nodes.listing", "invalid listing parameters: " + e.getMessage());
+                return Response.status(Response.Status.BAD_REQUEST).entity(error).type(MediaType.APPLICATION_JSON).build();
+            }
+            CollectionDto<NodeDto> dto = new CollectionDto<>(pageLimit, offset);
+            dto.setValues(nodes.stream().map(NodeDto::fromNode).toList());
+            dto.setSize(service.count(node.getId()));
+            dto.setLimit(pageLimit);
             dto.setOffset(offset);
+            if (!nodes.isEmpty() && nodes.size() == pageLimit) {
+                dto.setNext(service.cursor(nodes.get(nodes.size() - 1), by));
+            }
             return Response.ok(dto).build();
         } else {
             throw new NodeTypeException("Node is not a directory");
@@ -121,7 +190,6 @@ public class NodesResource {
 
     @POST
     @Path("{id}")
-    @Transactional(Transactional.TxType.REQUIRED)
     @Produces(MediaType.APPLICATION_JSON)
     @Consumes({MediaType.APPLICATION_JSON, MediaType.MULTIPART_FORM_DATA})
     public Response create(@PathParam("id") final String id, @Valid @MultipartForm NodeCreateDto dto, @Context UriInfo info) throws NodeNotFoundException, NodeTypeException,
@@ -141,14 +209,12 @@ public class NodesResource {
 
     @PUT
     @Path("{id}/{name}")
-    @Transactional(Transactional.TxType.REQUIRED)
     @Produces(MediaType.APPLICATION_JSON)
     @Consumes(MediaType.MULTIPART_FORM_DATA)
     public Response update(@PathParam("id") final String id, @PathParam("name") String name, @FormParam("data") InputStream data) throws
             NodeNotEmptyException, NodeNotFoundException, NodeTypeException, NodeAlreadyExistsException, DataStoreException, DataNotFoundException, NodePersistenceException, NotificationServiceException {
         LOGGER.log(Level.INFO, "PUT /api/nodes/{0}/{1}", new Object[]{id, name});
-        service.remove(id, name);
-        service.add(id, name, data);
+        service.replace(id, name, data);
         return Response.noContent().build();
     }
 
@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2025 Jerome Blanchard <jayblanc@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package fr.jayblanc.mbyte.store.api.resources;
+
+import fr.jayblanc.mbyte.store.api.dto.ErrorDto;
+import fr.jayblanc.mbyte.store.api.dto.UploadCreateDto;
+import fr.jayblanc.mbyte.store.api.filter.OnlyOwner;
+import fr.jayblanc.mbyte.store.data.exception.DataNotFoundException;
+import fr.jayblanc.mbyte.store.data.exception.DataStoreException;
+import fr.jayblanc.mbyte.store.files.exceptions.NodeAlreadyExistsException;
+import fr.jayblanc.mbyte.store.files.exceptions.NodeNotFoundException;
+import fr.jayblanc.mbyte.store.files.exceptions.NodePersistenceException;
+import fr.jayblanc.mbyte.store.files.exceptions.NodeTypeException;
+import fr.jayblanc.mbyte.store.notification.NotificationServiceException;
+import fr.jayblanc.mbyte.store.upload.UploadService;
+import fr.jayblanc.mbyte.store.upload.entity.UploadSession;
+import fr.jayblanc.mbyte.store.upload.exceptions.UploadHashException;
+import fr.jayblanc.mbyte.store.upload.exceptions.UploadNotFoundException;
+import fr.jayblanc.mbyte.store.upload.exceptions.UploadOffsetException;
+import jakarta.inject.Inject;
+import jakarta.validation.Valid;
+import jakarta.ws.rs.*;
+import jakarta.ws.rs.core.Context;
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Response;
+import jakarta.ws.rs.core.UriInfo;
+
+import java.io.InputStream;
+import java.net.URI;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Resumable upload protocol: create a session, PATCH chunks at the offset returned by HEAD, then POST to complete the
+ * session and create the node. A dropped connection only loses the chunk in flight. A session created with the hash of
+ * an already stored content directly creates the node: the response points to the node and no data has to be sent.
+ *
+ * @author Jerome Blanchard
+ */
+@Path("uploads")
+@OnlyOwner
+public class UploadsResource {
+
+    private static final Logger LOGGER = Logger.getLogger(UploadsResource.class.getName());
+
+    public static final String UPLOAD_OFFSET = "Upload-Offset";
+    public static final String UPLOAD_LENGTH = "Upload-Length";
+    public static final String OFFSET_OCTET_STREAM = "application/offset+octet-stream";
+
+    @Inject UploadService service;
+
+    @POST
+    @Consumes(MediaType.APPLICATION_JSON)
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response create(@Valid UploadCreateDto dto, @Context UriInfo info) throws UploadHashException, DataStoreException, DataNotFoundException, NodeNotFoundException,
+            NodeAlreadyExistsException, NodeTypeException, NodePersistenceException, NotificationServiceException {
+        LOGGER.log(Level.INFO, "POST /api/uploads");
+        UploadSession session = service.create(dto.getParent(), dto.getName(), dto.getSize(), dto.getHash());
+        if ( session.getNode() != null ) {
+            URI nodeUri = info.getBaseUriBuilder().path(NodesResource.class).path(session.getNode()).build();
+            return Response.created(nodeUri).header(UPLOAD_OFFSET, session.getOffset()).entity(session).build();
+        }
+        URI createdUri = info.getBaseUriBuilder().path(UploadsResource.class).path(session.getId()).build();
+        return Response.created(createdUri).header(UPLOAD_OFFSET, session.getOffset()).entity(session).build();
+    }
+
+    @GET
+    @Path("{id}")
+    @Produces(MediaType.APPLICATION_JSON)
+    public UploadSession get(@PathParam("id") final String id) throws UploadNotFoundException {
+        LOGGER.log(Level.INFO, "GET /api/uploads/{0}", id);
+        return service.get(id);
+    }
+
+    @HEAD
+    @Path("{id}")
+    public Response offset(@PathParam("id") final String id) throws UploadNotFoundException {
+        LOGGER.log(Level.INFO, "HEAD /api/uploads/{0}", id);
+        UploadSession session = service.get(id);
+        return Response.ok().header(UPLOAD_OFFSET, session.getOffset()).header(UPLOAD_LENGTH, session.getSize())
+                .header("Cache-Control", "no-store").build();
+    }
+
+    @PATCH
+    @Path("{id}")
+    @Consumes({OFFSET_OCTET_STREAM, MediaType.APPLICATION_OCTET_STREAM})
+    public Response append(@PathParam("id") final String id, @HeaderParam(UPLOAD_OFFSET) final Long offset, InputStream data) throws UploadNotFoundException,
+            UploadOffsetException, DataStoreException, DataNotFoundException {
+        LOGGER.log(Level.INFO, "PATCH /api/uploads/{0}", id);
+        if (offset == null) {
+            ErrorDto dto = new ErrorDto("upload.offset", "missing " + UPLOAD_OFFSET + " header");
+            return Response.status(Response.Status.BAD_REQUEST).entity(dto).type(MediaType.APPLICATION_JSON).build();
+        }
+        long next = service.append(id, offset, data);
+        return Response.noContent().header(UPLOAD_OFFSET, next).build();
+    }
+
+    @POST
+    @Path("{id}")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response complete(@PathParam("id") final String id, @Context UriInfo info) throws UploadNotFoundException, UploadOffsetException, UploadHashException,
+            DataStoreException, DataNotFoundException, NodeNotFoundException, NodeAlreadyExistsException, NodeTypeException, NodePersistenceException,
+            NotificationServiceException {
+        LOGGER.log(Level.INFO, "POST /api/uploads/{0}", id);
+        String nid = service.complete(id);
+        URI createdUri = info.getBaseUriBuilder().path(NodesResource.class).path(nid).build();
+        return Response.created(createdUri).build();
+    }
+
+    @DELETE
+    @Path("{id}")
+    public Response cancel(@PathParam("id") final String id) throws UploadNotFoundException, DataStoreException {
+        LOGGER.log(Level.INFO, "DELETE /api/uploads/{0}", id);
+        service.cancel(id);
+        return Response.noContent().build();
+    }
+
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright (C) 2025 Jerome Blanchard <jayblanc@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package fr.jayblanc.mbyte.store.api.route;
+
+import fr.jayblanc.mbyte.store.api.content.ByteRange;
+import fr.jayblanc.mbyte.store.api.content.ContentResponseBuilder;
+import fr.jayblanc.mbyte.store.auth.AuthenticationConfig;
+import fr.jayblanc.mbyte.store.data.DataStore;
+import fr.jayblanc.mbyte.store.data.DataStoreConfig;
+import fr.jayblanc.mbyte.store.files.FileService;
+import fr.jayblanc.mbyte.store.files.entity.Node;
+import fr.jayblanc.mbyte.store.metrics.MetricsService;
+import io.quarkus.narayana.jta.QuarkusTransaction;
+import io.quarkus.security.identity.SecurityIdentity;
+import io.quarkus.vertx.http.runtime.security.QuarkusHttpUser;
+import io.vertx.core.Future;
+import io.vertx.core.http.HttpHeaders;
+import io.vertx.core.http.HttpServerResponse;
+import io.vertx.ext.web.Router;
+import io.vertx.ext.web.RoutingContext;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Zero-copy download of node content.
+ * <p>
+ * These routes are registered in front of the JAX-RS <code>GET /api/nodes/{id}/content</code> and
+ * <code>GET /api/blobs/{hash}</code> endpoints and hand the blob file directly to Vert.x <code>sendFile</code>, so the
+ * bytes go from the page cache to the socket without crossing the JVM heap. Conditional requests and single byte
+ * ranges are answered here as well. Whenever the request cannot be served this way (not the owner, unknown node,
+ * folder, blob not stored as a plain file, multiple or unsatisfiable ranges...) it is passed to the next handler and
+ * the JAX-RS resource handles it, including error reporting.
+ *
+ * @author Jerome Blanchard
+ */
+@ApplicationScoped
+public class ContentRoute {
+
+    private static final Logger LOGGER = Logger.getLogger(ContentRoute.class.getName());
+    private static final String CONTENT_PATH = "/api/nodes/:id/content";
+    private static final String BLOB_PATH = "/api/blobs/:hash";
+
+    @Inject DataStoreConfig config;
+    @Inject AuthenticationConfig auth;
+    @Inject FileService service;
+    @Inject DataStore datastore;
+    @Inject MetricsService metrics;
+
+    void register(@Observes Router router) {
+        if (config.sendfile()) {
+            LOGGER.log(Level.INFO, "Registering zero-copy content routes");
+            router.get(CONTENT_PATH).blockingHandler(this::content, false);
+            router.get(BLOB_PATH).blockingHandler(this::blob, false);
+        }
+    }
+
+    void content(RoutingContext ctx) {
+        String id = ctx.pathParam("id");
+        LOGGER.log(Level.INFO, "GET /api/nodes/{0}/content (sendfile)", id);
+        this.send(ctx, () -> service.get(id), ContentResponseBuilder.REVALIDATE);
+    }
+
+    void blob(RoutingContext ctx) {
+        String hash = ctx.pathParam("hash");
+        LOGGER.log(Level.INFO, "GET /api/blobs/{0} (sendfile)", hash);
+        this.send(ctx, () -> service.findByContent(hash), config.cacheControl());
+    }
+
+    private void send(RoutingContext ctx, Callable<Node> loader, String cacheControl) {
+        if (!this.isOwner(ctx)) {
+            ctx.next();
+            return;
+        }
+        try {
+            Node node = QuarkusTransaction.requiringNew().call(loader);
+            if (!node.getType().equals(Node.Type.BLOB)) {
+                ctx.next();
+                return;
+            }
+            String etag = ContentResponseBuilder.etag(node);
+            if (ContentResponseBuilder.ifNoneMatch(ctx.request().getHeader(HttpHeaders.IF_NONE_MATCH), etag)) {
+                ctx.response().setStatusCode(304)
+                        .putHeader(HttpHeaders.ETAG, etag)
+                        .putHeader(HttpHeaders.CACHE_CONTROL, cacheControl)
+                        .end();
+                return;
+            }
+            Path file = datastore.file(node.getContent());
+            if (file == null) {
+                ctx.next();
+                return;
+            }
+            List<ByteRange> ranges = ByteRange.ifRange(ctx.request().getHeader(HttpHeaders.IF_RANGE), etag, node.getModification()) ?
+                    ByteRange.parse(ctx.request().getHeader(HttpHeaders.RANGE), node.getSize()) : null;
+            if (ranges != null && ranges.size() != 1) {
+                ctx.next();
+                return;
+            }
+            boolean download = Boolean.parseBoolean(ctx.request().getParam("download"));
+            metrics.incMetric("download");
+            HttpServerResponse response = ctx.response()
+                    .putHeader(HttpHeaders.CONTENT_TYPE, node.getMimetype())
+                    .putHeader(HttpHeaders.ACCEPT_RANGES, ByteRange.UNIT)
+                    .putHeader(HttpHeaders.ETAG, etag)
+                    .putHeader(HttpHeaders.CACHE_CONTROL, cacheControl)
+                    .putHeader(HttpHeaders.LAST_MODIFIED, ByteRange.httpDate(node.getModification()))
+                    .putHeader("Content-Disposition", ContentResponseBuilder.disposition(download, node.getName()));
+            Future<Void> sent;
+            if (ranges == null) {
+                sent = response.sendFile(file.toString());
+            } else {
+                ByteRange range = ranges.get(0);
+                sent = response.setStatusCode(206)
+                        .putHeader(HttpHeaders.CONTENT_RANGE, range.toContentRange(node.getSize()))
+                        .sendFile(file.toString(), range.getStart(), range.getLength());
+            }
+            sent.onFailure(e -> {
+                LOGGER.log(Level.WARNING, "Error while sending content of node: " + node.getId(), e);
+                this.abort(ctx, e);
+            });
+        } catch (Exception e) {
+            if (ctx.response().headWritten()) {
+                LOGGER.log(Level.WARNING, "Error while sending content using sendfile", e);
+                this.abort(ctx, e);
+                return;
+            }
+            LOGGER.log(Level.FINE, "Unable to serve content using sendfile, falling back to stream", e);
+            ctx.response().setStatusCode(200).headers().clear();
+            ctx.next();
+        }
+    }
+
+    /**
+     * Ends a response that cannot be sent: the connection is reset when the headers are already on the wire, otherwise
+     * the request is failed with a clean set of headers.
+     */
+    private void abort(RoutingContext ctx, Throwable cause) {
+        if (ctx.response().headWritten()) {
+            ctx.response().reset();
+        } else {
+            ctx.response().setStatusCode(200).headers().clear();
+            ctx.fail(cause);
+        }
+    }
+
+    private boolean isOwner(RoutingContext ctx) {
+        if (ctx.user() instanceof QuarkusHttpUser user) {
+            SecurityIdentity identity = user.getSecurityIdentity();
+            return !identity.isAnonymous() && identity.getPrincipal().getName().equals(auth.owner());
+        }
+        return false;
+    }
+
+}
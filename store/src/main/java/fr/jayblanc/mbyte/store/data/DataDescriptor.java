@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) 2025 Jerome Blanchard <jayblanc@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package fr.jayblanc.mbyte.store.data;
+
+/**
+ * Describes a blob stored in the {@link DataStore}: its content key, its size in bytes and its detected mime type.
+ *
+ * @author Jerome Blanchard
+ */
+public class DataDescriptor {
+
+    private String key;
+    private long size;
+    private String type;
+
+    public DataDescriptor() {
+    }
+
+    public DataDescriptor(String key, long size, String type) {
+        this.key = key;
+        this.size = size;
+        this.type = type;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public void setKey(String key) {
+        this.key = key;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public void setSize(long size) {
+        this.size = size;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public void setType(String type) {
+        this.type = type;
+    }
+
+    @Override
+    public String toString() {
+        return "DataDescriptor{" +
+                "key='" + key + '\'' +
+                ", size=" + size +
+                ", type='" + type + '\'' +
+                '}';
+    }
+}
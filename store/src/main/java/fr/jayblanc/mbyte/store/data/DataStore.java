@@ -20,6 +20,8 @@ import fr.jayblanc.mbyte.store.data.exception.DataNotFoundException;
 import fr.jayblanc.mbyte.store.data.exception.DataStoreException;
 
 import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.stream.Stream;
 
 /**
  * @author Jerome Blanchard
@@ -30,14 +32,103 @@ public interface DataStore {
 
     String put(InputStream is) throws DataStoreException;
 
+    /**
+     * Stores the stream and describes it in a single pass: key, size and mime type are computed while the data is written.
+     *
+     * @param is the content to store
+     * @param name the content file name, used as a hint for type detection, may be null
+     */
+    DataDescriptor put(InputStream is, String name) throws DataStoreException;
+
+    /**
+     * Opens a staging area where content can be appended in several chunks before being committed. The hash state is
+     * kept between chunks so that committing does not read nor copy the data again.
+     *
+     * @return the staging area identifier
+     */
+    String stage() throws DataStoreException;
+
+    /**
+     * Appends a chunk of data to a staging area.
+     *
+     * @param stage the staging area identifier
+     * @param offset the position of the chunk, must be equal to the current staged size
+     * @return the new staged size
+     */
+    long append(String stage, long offset, InputStream is) throws DataStoreException, DataNotFoundException;
+
+    long staged(String stage) throws DataStoreException, DataNotFoundException;
+
+    DataDescriptor commit(String stage, String name) throws DataStoreException, DataNotFoundException;
+
+    void discard(String stage) throws DataStoreException;
+
+    /**
+     * Describes an already stored blob that is about to be referenced again, without any content transfer. The blob is
+     * touched so that a concurrent collection does not remove it before the new reference is persisted.
+     *
+     * @param key the blob key
+     * @param name the content file name, used as a hint for type detection, may be null
+     */
+    DataDescriptor reuse(String key, String name) throws DataStoreException, DataNotFoundException;
+
     InputStream get(String key) throws DataStoreException, DataNotFoundException;
 
+    /**
+     * Reads a part of a blob.
+     *
+     * @param key the blob key
+     * @param offset the position of the first byte to read
+     * @param length the maximum number of bytes to read
+     */
+    InputStream get(String key, long offset, long length) throws DataStoreException, DataNotFoundException;
+
+    /**
+     * Gives access to the file holding the blob so that it can be handed to the HTTP layer and transferred without
+     * going through the JVM heap.
+     *
+     * @return the blob file or null if the blob is not stored as a plain file
+     */
+    Path file(String key) throws DataStoreException, DataNotFoundException;
+
     String type(String key, String name) throws DataStoreException, DataNotFoundException;
 
     long size(String key) throws DataStoreException, DataNotFoundException;
 
     String extract(String key, String name, String type) throws DataStoreException, DataNotFoundException;
 
+    /**
+     * Reads the stored content of a blob again, bypassing any cache, and checks that it still hashes to its key. A
+     * corrupted blob is moved to quarantine when the store is configured to do so.
+     *
+     * @return true if the content matches its key
+     */
+    boolean verify(String key) throws DataStoreException, DataNotFoundException;
+
+    /**
+     * Lists the keys of all stored blobs, whatever their layout. The returned stream holds open directory handles and
+     * must be closed.
+     */
+    Stream<String> keys() throws DataStoreException;
+
     void delete(String key) throws DataStoreException;
 
+    /**
+     * Deletes a blob only if it has not been written nor stored again since the given time. The check and the deletion
+     * are atomic with respect to concurrent puts of the same content.
+     *
+     * @param key the blob key
+     * @param before the time in milliseconds after which the blob is considered in use
+     * @return true if the blob has been deleted
+     */
+    boolean delete(String key, long before) throws DataStoreException;
+
+    /**
+     * Removes chunks that are no longer part of any blob manifest and abandoned staging files, when they have not been
+     * used since the given time.
+     *
+     * @return the number of removed files
+     */
+    int purge(long before) throws DataStoreException;
+
 }
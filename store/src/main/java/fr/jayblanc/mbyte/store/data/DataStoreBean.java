@@ -16,27 +16,63 @@
  */
 package fr.jayblanc.mbyte.store.data;
 
+import fr.jayblanc.mbyte.store.data.cache.BlobCache;
+import fr.jayblanc.mbyte.store.data.cache.LruCache;
+import fr.jayblanc.mbyte.store.data.chunk.ChunkManifest;
+import fr.jayblanc.mbyte.store.data.chunk.ChunkedInputStream;
+import fr.jayblanc.mbyte.store.data.chunk.FastCdcChunker;
+import fr.jayblanc.mbyte.store.data.compress.CompressedFile;
 import fr.jayblanc.mbyte.store.data.exception.DataNotFoundException;
 import fr.jayblanc.mbyte.store.data.exception.DataStoreException;
+import fr.jayblanc.mbyte.store.data.hash.HashAlgorithm;
 import fr.jayblanc.mbyte.store.data.hash.HashedFilterInputStream;
+import fr.jayblanc.mbyte.store.data.hash.Hasher;
+import fr.jayblanc.mbyte.store.data.pack.PackStore;
+import fr.jayblanc.mbyte.store.data.stream.ByteBufferInputStream;
+import fr.jayblanc.mbyte.store.data.stream.LimitedFilterInputStream;
+import fr.jayblanc.mbyte.store.data.stream.SniffingFilterInputStream;
+import fr.jayblanc.mbyte.store.data.stream.ThrottledInputStream;
+import fr.jayblanc.mbyte.store.data.sync.GroupSync;
+import fr.jayblanc.mbyte.store.data.text.TextExtractor;
+import fr.jayblanc.mbyte.store.metrics.MetricsService;
 import io.quarkus.runtime.Startup;
+import io.quarkus.scheduler.Scheduled;
+import jakarta.annotation.PreDestroy;
 import jakarta.inject.Inject;
 import jakarta.inject.Singleton;
 import jakarta.ws.rs.core.MediaType;
+import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.tika.Tika;
-import org.apache.tika.exception.TikaException;
-import org.apache.tika.metadata.Metadata;
-import org.apache.tika.parser.AutoDetectParser;
-import org.apache.tika.sax.BodyContentHandler;
-import org.xml.sax.SAXException;
 
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SeekableByteChannel;
 import java.nio.file.*;
-import java.security.NoSuchAlgorithmException;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.stream.Stream;
+import java.util.zip.ZipException;
 
 /**
  * @author Jerome Blanchard
@@ -45,76 +81,261 @@ import java.util.logging.Logger;
 public class DataStoreBean implements DataStore {
 
     private static final Logger LOGGER = Logger.getLogger(DataStore.class.getName());
+    private static final int SNIFF_LENGTH = 64 * 1024;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int LOCKS = 64;
+    /**
+     * Identifies the way text is extracted, cached texts produced by another version are ignored. Bump the leading
+     * number when the extraction code changes.
+     */
+    static final String EXTRACTOR_VERSION = "2-" + Tika.getString().replaceAll("[^0-9.]", "");
 
     @Inject
     DataStoreConfig config;
 
+    @Inject
+    MetricsService metrics;
+
     private Path base;
+    private Path staging;
+    private GroupSync syncer;
+    private HashAlgorithm algorithm;
+    private PackStore packs;
     private Tika tika;
+    private TextExtractor extractor;
+    private final Map<String, Stage> stages = new ConcurrentHashMap<>();
+    private final Object[] locks = new Object[LOCKS];
+    private LruCache<String, CachedBlob> metadata;
+    private final LongAdder metadataHits = new LongAdder();
+    private final LongAdder metadataMisses = new LongAdder();
+    private BlobCache blobs;
+    private final LongAdder blobHits = new LongAdder();
+    private final LongAdder blobLoads = new LongAdder();
 
     public DataStoreBean() {
+        for (int i = 0; i < LOCKS; i++) {
+            locks[i] = new Object();
+        }
     }
 
     @Startup
     public void init() {
         this.base = Paths.get(config.home());
+        this.staging = DataStoreLayout.staging(base);
+        this.algorithm = HashAlgorithm.forName(config.hash());
         LOGGER.log(Level.FINEST, "Initializing service with base folder: " + base);
         try {
             Files.createDirectories(base);
+            Files.createDirectories(staging);
         } catch (Exception e) {
             LOGGER.log(Level.SEVERE, "unable to initialize data store", e);
         }
+        this.recover();
+        this.syncer = new GroupSync(config.sync());
+        this.syncer.start();
         this.tika = new Tika();
+        this.extractor = new TextExtractor(config.extraction().threads(), config.extraction().queue(), config.extraction().timeout(),
+                config.extraction().limit());
+        this.metadata = new LruCache<>(config.cache().metadata());
+        this.blobs = new BlobCache(config.cache().blobs(), config.cache().blobSize(), config.cache().admission());
+        this.packs = new PackStore(DataStoreLayout.packs(base), config.packing().segment());
+        try {
+            if ( config.packing().enabled() || Files.isDirectory(DataStoreLayout.packs(base)) ) {
+                packs.load();
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "unable to load pack segments", e);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        syncer.stop();
+        extractor.close();
+        try {
+            packs.close();
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "unable to close pack segments", e);
+        }
     }
 
     @Override
     public boolean exists(String key) {
-        Path file = Paths.get(base.toString(), key);
-        return Files.exists(file);
+        return this.locate(key) != null;
     }
 
     @Override
     public String put(InputStream is) throws DataStoreException {
-        String tmpkey = UUID.randomUUID().toString();
-        Path tmpfile = Paths.get(base.toString(), tmpkey);
-        try (HashedFilterInputStream his = HashedFilterInputStream.SHA256(is)) {
-            Files.copy(his, tmpfile, StandardCopyOption.REPLACE_EXISTING);
+        return this.put(is, null).getKey();
+    }
+
+    @Override
+    public DataDescriptor put(InputStream is, String name) throws DataStoreException {
+        Path tmpfile = DataStoreLayout.temp(base);
+        try (HashedFilterInputStream his = HashedFilterInputStream.of(is, algorithm);
+             SniffingFilterInputStream sis = new SniffingFilterInputStream(his, SNIFF_LENGTH)) {
+            long size = Files.copy(sis, tmpfile, StandardCopyOption.REPLACE_EXISTING);
             String key = his.getHash();
-            Path file = Paths.get(base.toString(), key);
-            if ( !Files.exists(file) ) {
-                Files.move(tmpfile, file);
-            } else {
-                Files.delete(tmpfile);
-            }
-            return key;
-        } catch (IOException | NoSuchAlgorithmException e) {
+            String type = this.detect(sis.getPrefix(), name);
+            this.store(tmpfile, key, sis.getPrefix(), type);
+            this.describe(key, size, name, type);
+            return new DataDescriptor(key, size, type);
+        } catch (IOException e) {
             throw new DataStoreException("unexpected error during stream copy", e);
+        } finally {
+            try {
+                Files.deleteIfExists(tmpfile);
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Unable to delete staging file: " + tmpfile, e);
+            }
+        }
+    }
+
+    @Override
+    public String stage() throws DataStoreException {
+        String id = UUID.randomUUID().toString();
+        try {
+            Files.createFile(staging.resolve(id));
+            stages.put(id, new Stage(algorithm, algorithm.hasher(), 0));
+            return id;
+        } catch (IOException e) {
+            throw new DataStoreException("unable to create staging area", e);
+        }
+    }
+
+    @Override
+    public long append(String id, long offset, InputStream is) throws DataStoreException, DataNotFoundException {
+        Stage stage = this.loadStage(id);
+        synchronized (stage) {
+            if ( offset != stage.size ) {
+                throw new DataStoreException("unexpected offset: " + offset + " for staging area: " + id + ", expected: " + stage.size);
+            }
+            byte[] buffer = new byte[BUFFER_SIZE];
+            try (HashedFilterInputStream his = HashedFilterInputStream.of(is, stage.algorithm, stage.hasher);
+                 OutputStream os = Files.newOutputStream(staging.resolve(id), StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+                int r;
+                while ( (r = his.read(buffer)) != -1 ) {
+                    try {
+                        os.write(buffer, 0, r);
+                    } catch (IOException e) {
+                        // hash and file are no more in sync, state will be rebuilt from the staged file on next access
+                        stages.remove(id);
+                        throw e;
+                    }
+                    stage.size += r;
+                }
+            } catch (IOException e) {
+                throw new DataStoreException("unexpected error while appending to staging area: " + id + " at offset: " + stage.size, e);
+            }
+            return stage.size;
+        }
+    }
+
+    @Override
+    public long staged(String id) throws DataStoreException, DataNotFoundException {
+        return this.loadStage(id).size;
+    }
+
+    @Override
+    public DataDescriptor commit(String id, String name) throws DataStoreException, DataNotFoundException {
+        Stage stage = this.loadStage(id);
+        synchronized (stage) {
+            Path tmpfile = staging.resolve(id);
+            try {
+                String key = stage.algorithm.key(stage.hasher.digest());
+                byte[] prefix = this.prefix(tmpfile);
+                String type = this.detect(prefix, name);
+                this.store(tmpfile, key, prefix, type);
+                this.describe(key, stage.size, name, type);
+                return new DataDescriptor(key, stage.size, type);
+            } catch (IOException e) {
+                throw new DataStoreException("unexpected error while committing staging area: " + id, e);
+            } finally {
+                this.discard(id);
+            }
+        }
+    }
+
+    @Override
+    public void discard(String id) throws DataStoreException {
+        if ( !this.isStage(id) ) {
+            return;
+        }
+        stages.remove(id);
+        try {
+            Files.deleteIfExists(staging.resolve(id));
+        } catch (IOException e) {
+            throw new DataStoreException("unable to delete staging area: " + id, e);
         }
     }
 
     @Override
     public InputStream get(String key) throws DataStoreException, DataNotFoundException {
-        Path file = Paths.get(base.toString(), key);
-        if ( !Files.exists(file) ) {
-            throw new DataNotFoundException("file not found in storage for key: " + key);
+        try {
+            ByteBuffer content = this.cached(key);
+            if ( content != null ) {
+                return new ByteBufferInputStream(content);
+            }
+            return this.open(key);
+        } catch (IOException e) {
+            throw new DataStoreException("unexpected error while opening stream", e);
+        }
+    }
+
+    @Override
+    public InputStream get(String key, long offset, long length) throws DataStoreException, DataNotFoundException {
+        if ( offset < 0 || length < 0 ) {
+            throw new DataStoreException("invalid range, offset: " + offset + ", length: " + length);
         }
         try {
-            return Files.newInputStream(file, StandardOpenOption.READ);
+            ByteBuffer content = this.cached(key);
+            if ( content != null ) {
+                int start = (int) Math.min(offset, content.limit());
+                int end = (int) Math.min(start + Math.min(length, Integer.MAX_VALUE), content.limit());
+                return new ByteBufferInputStream(content.slice(start, end - start));
+            }
+            return new LimitedFilterInputStream(this.open(key, offset), length);
         } catch (IOException e) {
             throw new DataStoreException("unexpected error while opening stream", e);
         }
     }
 
+    @Override
+    public Path file(String key) throws DataNotFoundException {
+        Path file = this.relocate(key);
+        if ( file.equals(DataStoreLayout.legacy(base, key)) && !Files.exists(file) ) {
+            // the cached legacy location may have been moved by the migrator
+            file = this.relocateAgain(key);
+        }
+        return (DataStoreLayout.isManifest(file) || DataStoreLayout.isCompressed(file) || this.isPacked(file)) ? null : file;
+    }
+
+    @Override
+    public DataDescriptor reuse(String key, String name) throws DataStoreException, DataNotFoundException {
+        LOGGER.log(Level.FINE, "Reuse blob for key: " + key);
+        try {
+            if ( !this.touch(key, this.locate(key)) && !this.touch(key, this.relocateAgain(key)) ) {
+                throw new DataNotFoundException("file not found in storage for key: " + key);
+            }
+        } catch (IOException e) {
+            throw new DataStoreException("unable to touch blob: " + key, e);
+        }
+        return new DataDescriptor(key, this.size(key), this.type(key, name));
+    }
+
     @Override
     public String type(String key, String name) throws DataNotFoundException {
         LOGGER.log(Level.FINE, "Extract type for key: " + key);
-        Path file = Paths.get(base.toString(), key);
-        if ( !Files.exists(file) ) {
-            throw new DataNotFoundException("file not found in storage for key: " + key);
+        CachedBlob cached = this.metadata(key);
+        if ( cached != null && cached.type() != null && cached.hint().equals(hint(name)) ) {
+            return cached.type();
         }
         String mimetype = MediaType.APPLICATION_OCTET_STREAM;
-        try (InputStream stream = Files.newInputStream(file)) {
+        try (InputStream stream = this.open(key)) {
             mimetype = tika.detect(stream, name);
+            if ( cached != null ) {
+                metadata.replace(key, cached, new CachedBlob(cached.file(), cached.size(), hint(name), mimetype));
+            }
         } catch (IOException e) {
             LOGGER.log(Level.SEVERE, "Unable to detect mimetype: " + e.getMessage(), e);
         }
@@ -123,12 +344,22 @@ public class DataStoreBean implements DataStore {
 
     @Override
     public long size(String key) throws DataStoreException, DataNotFoundException {
-        Path file = Paths.get(base.toString(), key);
-        if ( !Files.exists(file) ) {
+        CachedBlob cached = this.metadata(key);
+        if ( cached == null ) {
             throw new DataNotFoundException("file not found in storage for key: " + key);
         }
+        if ( cached.size() >= 0 ) {
+            return cached.size();
+        }
         try {
-            return Files.size(file);
+            long size;
+            try {
+                size = this.size(key, cached.file());
+            } catch (NoSuchFileException e) {
+                size = this.size(key, this.relocateAgain(key));
+            }
+            metadata.replace(key, cached, new CachedBlob(cached.file(), size, cached.hint(), cached.type()));
+            return size;
         } catch (IOException e) {
             throw new DataStoreException("unexpected error while getting stream size", e);
         }
@@ -137,26 +368,683 @@ public class DataStoreBean implements DataStore {
     @Override
     public String extract(String key, String name, String type) throws DataStoreException, DataNotFoundException {
         LOGGER.log(Level.FINE, "Extract text for key: " + key);
-        Path file = Paths.get(base.toString(), key);
-        if ( !Files.exists(file) ) {
-            throw new DataNotFoundException("file not found in storage");
-        }
-        try (InputStream stream = Files.newInputStream(file)) {
-            BodyContentHandler handler = new BodyContentHandler();
-            AutoDetectParser parser = new AutoDetectParser();
-            Metadata metadata = new Metadata();
-            metadata.set(Metadata.CONTENT_TYPE, type);
-            parser.parse(stream, handler, metadata);
-            return handler.toString();
-        } catch (IOException | SAXException | TikaException e) {
+        this.relocate(key);
+        Path text = config.extraction().cache() ? DataStoreLayout.text(base, key, EXTRACTOR_VERSION) : null;
+        if ( text != null ) {
+            try {
+                String content = Files.readString(text);
+                metrics.incMetric("datastore.text.hit");
+                return content;
+            } catch (NoSuchFileException e) {
+                metrics.incMetric("datastore.text.miss");
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Unable to read extracted text for key: " + key, e);
+            }
+        }
+        String content;
+        long start = System.currentTimeMillis();
+        try (InputStream stream = this.open(key)) {
+            TextExtractor.Text extracted = extractor.extract(stream, type);
+            if ( extracted.truncated() ) {
+                LOGGER.log(Level.INFO, "Extracted text truncated for key: " + key);
+                metrics.incMetric("datastore.extract.truncated");
+            }
+            content = extracted.content();
+            metrics.incMetric("datastore.extract.done");
+            LOGGER.log(Level.FINE, "Text extracted for key: " + key + " in " + (System.currentTimeMillis() - start) + "ms");
+        } catch (RejectedExecutionException e) {
+            metrics.incMetric("datastore.extract.rejected");
+            throw new DataStoreException("text extraction queue is full", e);
+        } catch (TimeoutException e) {
+            metrics.incMetric("datastore.extract.timeout");
+            throw new DataStoreException("text extraction timed out for key: " + key, e);
+        } catch (IOException e) {
+            metrics.incMetric("datastore.extract.failed");
+            throw new DataStoreException("unexpected error while extracting text", e);
+        }
+        if ( text != null ) {
+            this.keepText(key, text, content);
+        }
+        return content;
+    }
+
+    @Override
+    public boolean verify(String key) throws DataStoreException, DataNotFoundException {
+        HashAlgorithm algorithm = HashAlgorithm.forKey(key);
+        if ( algorithm == null ) {
+            throw new DataNotFoundException("file not found in storage for key: " + key);
+        }
+        InputStream content;
+        try {
+            content = this.open(key);
+        } catch (NoSuchFileException e) {
+            throw new DataNotFoundException("file not found in storage for key: " + key);
+        } catch (IOException e) {
             throw new DataStoreException("unexpected error while opening stream", e);
         }
+        try (HashedFilterInputStream his = HashedFilterInputStream.of(new ThrottledInputStream(content, config.scrub().rate()), algorithm)) {
+            his.transferTo(OutputStream.nullOutputStream());
+            if ( his.getHash().equals(key) ) {
+                return true;
+            }
+            LOGGER.log(Level.SEVERE, "Blob " + key + " is corrupted, its content hashes to " + his.getHash());
+        } catch (EOFException | ZipException | NoSuchFileException e) {
+            LOGGER.log(Level.SEVERE, "Blob " + key + " is corrupted, its content is truncated, missing chunks or cannot be decoded", e);
+        } catch (IOException e) {
+            throw new DataStoreException("unexpected error while verifying blob: " + key, e);
+        }
+        if ( config.scrub().quarantine() ) {
+            this.quarantine(key);
+        }
+        return false;
+    }
+
+    @Override
+    public Stream<String> keys() throws DataStoreException {
+        Path chunks = DataStoreLayout.chunks(base);
+        Path packed = DataStoreLayout.packs(base);
+        Path quarantine = DataStoreLayout.quarantine(base);
+        Path texts = DataStoreLayout.texts(base);
+        try {
+            Stream<String> files = Files.walk(base)
+                    .filter(file -> !file.startsWith(staging) && !file.startsWith(chunks) && !file.startsWith(packed) && !file.startsWith(quarantine)
+                            && !file.startsWith(texts))
+                    .filter(Files::isRegularFile)
+                    .map(DataStoreLayout::key)
+                    .filter(Objects::nonNull);
+            return Stream.concat(files, List.copyOf(packs.keys()).stream()).distinct();
+        } catch (IOException e) {
+            throw new DataStoreException("unable to list data store keys", e);
+        }
     }
 
     @Override
     public void delete(String key) throws DataStoreException {
-        throw new DataStoreException("NOT IMPLEMENTED");
+        this.delete(key, Long.MAX_VALUE);
     }
 
+    @Override
+    public boolean delete(String key, long before) throws DataStoreException {
+        if ( !DataStoreLayout.isKey(key) ) {
+            return false;
+        }
+        List<Path> files = List.of(DataStoreLayout.blob(base, key), DataStoreLayout.manifest(base, key), DataStoreLayout.compressed(base, key),
+                DataStoreLayout.legacy(base, key));
+        synchronized (this.lock(key)) {
+            try {
+                if ( packs.modified(key) >= before ) {
+                    LOGGER.log(Level.FINE, "Blob " + key + " has been used recently, keeping it");
+                    return false;
+                }
+                for (Path file : files) {
+                    if ( Files.exists(file) && Files.getLastModifiedTime(file).toMillis() >= before ) {
+                        LOGGER.log(Level.FINE, "Blob " + key + " has been used recently, keeping it");
+                        return false;
+                    }
+                }
+                boolean deleted = packs.delete(key);
+                for (Path file : files) {
+                    deleted |= Files.deleteIfExists(file);
+                }
+                this.deleteTexts(key);
+                metadata.remove(key);
+                blobs.remove(key);
+                return deleted;
+            } catch (IOException e) {
+                throw new DataStoreException("unable to delete blob for key: " + key, e);
+            }
+        }
+    }
+
+    @Override
+    public int purge(long before) throws DataStoreException {
+        int removed = 0;
+        try {
+            removed += packs.compact(config.packing().compaction());
+            Path chunks = DataStoreLayout.chunks(base);
+            if ( Files.isDirectory(chunks) ) {
+                Set<String> referenced = new HashSet<>();
+                try (Stream<Path> files = Files.walk(base)) {
+                    for (Path file : (Iterable<Path>) files.filter(DataStoreLayout::isManifest)::iterator) {
+                        ChunkManifest.read(file).getEntries().forEach(entry -> referenced.add(entry.hash()));
+                    }
+                }
+                try (Stream<Path> files = Files.walk(chunks)) {
+                    for (Path file : (Iterable<Path>) files.filter(Files::isRegularFile)::iterator) {
+                        String hash = file.getFileName().toString();
+                        if ( !referenced.contains(hash) && this.deleteUnused(hash, file, before) ) {
+                            removed++;
+                        }
+                    }
+                }
+            }
+            Path texts = DataStoreLayout.texts(base);
+            if ( Files.isDirectory(texts) ) {
+                try (Stream<Path> files = Files.walk(texts)) {
+                    for (Path file : (Iterable<Path>) files.filter(Files::isRegularFile)::iterator) {
+                        String key = DataStoreLayout.textKey(file);
+                        boolean stale = key == null || !file.equals(DataStoreLayout.text(base, key, EXTRACTOR_VERSION)) || this.locate(key) == null;
+                        if ( stale && Files.getLastModifiedTime(file).toMillis() < before && Files.deleteIfExists(file) ) {
+                            removed++;
+                        }
+                    }
+                }
+            }
+            try (Stream<Path> files = Files.list(staging)) {
+                for (Path file : (Iterable<Path>) files::iterator) {
+                    if ( !stages.containsKey(file.getFileName().toString()) && Files.getLastModifiedTime(file).toMillis() < before ) {
+                        LOGGER.log(Level.INFO, "Removing abandoned staging file: " + file);
+                        Files.deleteIfExists(file);
+                        removed++;
+                    }
+                }
+            }
+        } catch (IOException | UncheckedIOException e) {
+            throw new DataStoreException("unable to purge data store", e);
+        }
+        return removed;
+    }
+
+    /**
+     * Moves a fully written staging file to its content addressed location, unless the content is already stored. In
+     * that case the stored blob is touched so that a concurrent collection does not remove it before it is referenced.
+     * Large blobs are chunked and small ones packed when enabled, otherwise compressible blobs are deflated when
+     * compression is enabled.
+     */
+    private void store(Path tmpfile, String key, byte[] prefix, String type) throws IOException {
+        if ( this.touch(key, this.locate(key)) ) {
+            return;
+        }
+        long size = Files.size(tmpfile);
+        if ( config.chunking().enabled() && size >= config.chunking().threshold() ) {
+            this.storeChunks(tmpfile, key);
+            return;
+        }
+        if ( config.packing().enabled() && size < config.packing().threshold() ) {
+            synchronized (this.lock(key)) {
+                packs.put(key, tmpfile);
+            }
+            syncer.sync(packs.files(key));
+            return;
+        }
+        if ( this.isCompressible(size, prefix, type) ) {
+            Path compressedfile = DataStoreLayout.temp(base);
+            CompressedFile.write(tmpfile, compressedfile, config.compression().level());
+            LOGGER.log(Level.FINE, "Blob " + key + " compressed from " + size + " to " + Files.size(compressedfile) + " bytes");
+            this.moveInPlace(key, compressedfile, DataStoreLayout.compressed(base, key));
+            return;
+        }
+        this.moveInPlace(key, tmpfile, DataStoreLayout.blob(base, key));
+    }
+
+    /**
+     * Moves a corrupted blob out of the store, keeping its content for inspection.
+     */
+    private void quarantine(String key) throws DataStoreException {
+        synchronized (this.lock(key)) {
+            Path file = this.locate(key);
+            if ( file == null ) {
+                return;
+            }
+            try {
+                Path folder = DataStoreLayout.quarantine(base);
+                Files.createDirectories(folder);
+                if ( this.isPacked(file) ) {
+                    try (InputStream is = packs.open(key, 0)) {
+                        Files.copy(is, folder.resolve(key), StandardCopyOption.REPLACE_EXISTING);
+                    }
+                    packs.delete(key);
+                } else {
+                    Files.move(file, folder.resolve(file.getFileName()), StandardCopyOption.REPLACE_EXISTING);
+                }
+                LOGGER.log(Level.WARNING, "Blob " + key + " moved to quarantine");
+            } catch (IOException e) {
+                throw new DataStoreException("unable to quarantine blob: " + key, e);
+            } finally {
+                metadata.remove(key);
+                blobs.remove(key);
+            }
+        }
+    }
+
+    /**
+     * Saves the text extracted from a blob. Concurrent extractions of the same content produce the same text, so the
+     * last atomic move wins without any locking.
+     */
+    private void keepText(String key, Path text, String content) {
+        Path tmpfile = DataStoreLayout.temp(base);
+        try {
+            Files.createDirectories(text.getParent());
+            Files.writeString(tmpfile, content);
+            Files.move(tmpfile, text, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Unable to keep extracted text for key: " + key, e);
+            try {
+                Files.deleteIfExists(tmpfile);
+            } catch (IOException ex) {
+                LOGGER.log(Level.FINE, "Unable to delete temporary text file: " + tmpfile, ex);
+            }
+        }
+    }
+
+    private void deleteTexts(String key) throws IOException {
+        Path folder = DataStoreLayout.text(base, key, EXTRACTOR_VERSION).getParent();
+        if ( !Files.isDirectory(folder) ) {
+            return;
+        }
+        try (Stream<Path> files = Files.list(folder)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                if ( key.equals(DataStoreLayout.textKey(file)) ) {
+                    Files.deleteIfExists(file);
+                }
+            }
+        }
+    }
+
+    /**
+     * Decides whether a blob is worth compressing from its type and the compression ratio of its first bytes.
+     */
+    private boolean isCompressible(long size, byte[] prefix, String type) {
+        if ( !config.compression().enabled() || size < config.compression().threshold() ) {
+            return false;
+        }
+        if ( type != null && config.compression().excluded().stream().anyMatch(type::startsWith) ) {
+            return false;
+        }
+        return CompressedFile.ratio(prefix, config.compression().level()) <= config.compression().ratio();
+    }
+
+    private boolean touch(String hash, Path file) throws IOException {
+        if ( file == null ) {
+            return false;
+        }
+        synchronized (this.lock(hash)) {
+            if ( this.isPacked(file) ) {
+                return packs.touch(hash);
+            }
+            try {
+                Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+                return true;
+            } catch (NoSuchFileException e) {
+                return false;
+            }
+        }
+    }
+
+    private boolean deleteUnused(String hash, Path file, long before) throws IOException {
+        synchronized (this.lock(hash)) {
+            if ( Files.exists(file) && Files.getLastModifiedTime(file).toMillis() < before ) {
+                return Files.deleteIfExists(file);
+            }
+            return false;
+        }
+    }
+
+    private Object lock(String hash) {
+        return locks[Math.floorMod(hash.hashCode(), LOCKS)];
+    }
+
+    /**
+     * Splits a staging file in content defined chunks, stores the chunks that are not already known and then the blob
+     * manifest. The manifest is written last so that a blob is never visible before all its chunks.
+     */
+    private void storeChunks(Path tmpfile, String key) throws IOException {
+        ChunkManifest manifest = new ChunkManifest();
+        Map<String, Path> written = new LinkedHashMap<>();
+        int reused = 0;
+        try (InputStream is = Files.newInputStream(tmpfile)) {
+            FastCdcChunker chunker = new FastCdcChunker(is, config.chunking().min(), config.chunking().avg(), config.chunking().max());
+            byte[] chunk;
+            while ( (chunk = chunker.next()) != null ) {
+                String hash = DigestUtils.sha256Hex(chunk);
+                Path file = DataStoreLayout.chunk(base, hash);
+                if ( written.containsKey(hash) || this.touch(hash, Files.exists(file) ? file : null) ) {
+                    reused++;
+                } else {
+                    Path chunkfile = DataStoreLayout.temp(base);
+                    Files.write(chunkfile, chunk);
+                    written.put(hash, chunkfile);
+                }
+                manifest.add(hash, chunk.length);
+            }
+            syncer.sync(List.copyOf(written.values()));
+            Set<Path> folders = new LinkedHashSet<>();
+            for (Map.Entry<String, Path> entry : written.entrySet()) {
+                Path file = DataStoreLayout.chunk(base, entry.getKey());
+                folders.addAll(this.prepare(file.getParent()));
+                this.place(entry.getKey(), entry.getValue(), file);
+            }
+            syncer.sync(List.copyOf(folders));
+        } finally {
+            for (Path chunkfile : written.values()) {
+                Files.deleteIfExists(chunkfile);
+            }
+        }
+        Path manifestfile = DataStoreLayout.temp(base);
+        manifest.write(manifestfile);
+        this.moveInPlace(key, manifestfile, DataStoreLayout.manifest(base, key));
+        LOGGER.log(Level.FINE, "Blob " + key + " stored as " + manifest.getEntries().size() + " chunks, " + reused + " already known");
+    }
+
+    /**
+     * Moves a written file to its final location. In durable mode the file content is synced before it becomes visible
+     * under its name and the folder entries are synced after, so that a crash never leaves a truncated blob behind a
+     * valid key.
+     */
+    private void moveInPlace(String hash, Path tmpfile, Path file) throws IOException {
+        try {
+            List<Path> folders = this.prepare(file.getParent());
+            syncer.sync(tmpfile);
+            this.place(hash, tmpfile, file);
+            syncer.sync(folders);
+        } finally {
+            Files.deleteIfExists(tmpfile);
+        }
+    }
+
+    private void place(String hash, Path tmpfile, Path file) throws IOException {
+        synchronized (this.lock(hash)) {
+            try {
+                Files.move(tmpfile, file, StandardCopyOption.ATOMIC_MOVE);
+            } catch (FileAlreadyExistsException e) {
+                LOGGER.log(Level.FINE, "Concurrent write already stored file: " + file);
+            }
+        }
+    }
+
+    /**
+     * Creates a folder and its missing parents.
+     *
+     * @return the folders whose entries change when a file is added in the folder
+     */
+    private List<Path> prepare(Path folder) throws IOException {
+        List<Path> folders = new ArrayList<>();
+        folders.add(folder);
+        Path missing = folder;
+        while ( missing != null && !Files.isDirectory(missing) ) {
+            folders.add(missing.getParent());
+            missing = missing.getParent();
+        }
+        Files.createDirectories(folder);
+        return folders;
+    }
+
+    /**
+     * Removes the files left in the staging folder by writes interrupted by a stop or a crash, and the staging areas of
+     * upload sessions, which are kept in memory and do not survive a restart.
+     */
+    private void recover() {
+        try (Stream<Path> files = Files.list(staging)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                LOGGER.log(Level.INFO, "Removing orphan staging file: " + file);
+                Files.deleteIfExists(file);
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "unable to scan staging folder for orphan files", e);
+        }
+    }
+
+    private boolean isStage(String id) {
+        try {
+            return id != null && UUID.fromString(id).toString().equals(id);
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Gets the state of a staging area. When the state is unknown (after a write failure) it is rebuilt by hashing the
+     * staged file.
+     */
+    private Stage loadStage(String id) throws DataStoreException, DataNotFoundException {
+        if ( !this.isStage(id) ) {
+            throw new DataNotFoundException("staging area not found: " + id);
+        }
+        Stage stage = stages.get(id);
+        if ( stage != null ) {
+            return stage;
+        }
+        Path tmpfile = staging.resolve(id);
+        if ( !Files.exists(tmpfile) ) {
+            throw new DataNotFoundException("staging area not found: " + id);
+        }
+        LOGGER.log(Level.INFO, "Rebuilding state of staging area: " + id);
+        try {
+            Hasher hasher = algorithm.hasher();
+            long size = 0;
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int r;
+            try (InputStream is = HashedFilterInputStream.of(Files.newInputStream(tmpfile), algorithm, hasher)) {
+                while ( (r = is.read(buffer)) != -1 ) {
+                    size += r;
+                }
+            }
+            Stage existing = stages.putIfAbsent(id, new Stage(algorithm, hasher, size));
+            return (existing != null) ? existing : stages.get(id);
+        } catch (IOException e) {
+            throw new DataStoreException("unable to rebuild state of staging area: " + id, e);
+        }
+    }
+
+    private byte[] prefix(Path file) throws IOException {
+        try (InputStream is = Files.newInputStream(file)) {
+            return is.readNBytes(SNIFF_LENGTH);
+        }
+    }
+
+    private String detect(byte[] prefix, String name) {
+        try {
+            return tika.detect(prefix, name);
+        } catch (RuntimeException e) {
+            LOGGER.log(Level.SEVERE, "Unable to detect mimetype: " + e.getMessage(), e);
+            return MediaType.APPLICATION_OCTET_STREAM;
+        }
+    }
+
+    private Path locate(String key) {
+        CachedBlob cached = this.metadata(key);
+        return (cached != null) ? cached.file() : null;
+    }
+
+    /**
+     * Gets the cached metadata of a blob, locating it on disk on a cache miss. Misses are resolved under the key lock
+     * so that a concurrent deletion cannot leave a stale entry in the cache.
+     */
+    private CachedBlob metadata(String key) {
+        if ( !DataStoreLayout.isKey(key) ) {
+            return null;
+        }
+        CachedBlob cached = metadata.get(key);
+        if ( cached != null ) {
+            metadataHits.increment();
+            return cached;
+        }
+        metadataMisses.increment();
+        synchronized (this.lock(key)) {
+            Path file = this.scan(key);
+            if ( file == null ) {
+                return null;
+            }
+            cached = new CachedBlob(file, -1, "", null);
+            metadata.put(key, cached);
+            return cached;
+        }
+    }
+
+    /**
+     * Publishes the cache counters. They are kept in adders on the read path, which must not contend on the metrics
+     * service lock.
+     */
+    @Scheduled(every = "1m", delayed = "1m")
+    void publish() {
+        metrics.setMetric("datastore.cache.hit", metadataHits.sum());
+        metrics.setMetric("datastore.cache.miss", metadataMisses.sum());
+        metrics.setMetric("datastore.blobs.hit", blobHits.sum());
+        metrics.setMetric("datastore.blobs.load", blobLoads.sum());
+    }
+
+    /**
+     * Gets the content of a blob from the direct memory cache, loading it in the cache when the blob is small and read
+     * often enough.
+     *
+     * @return the cached content or null if the blob is not cached
+     */
+    private ByteBuffer cached(String key) throws IOException, DataStoreException, DataNotFoundException {
+        ByteBuffer content = blobs.get(key);
+        if ( content != null ) {
+            blobHits.increment();
+            return content;
+        }
+        long size = this.size(key);
+        if ( !blobs.admit(key, size) ) {
+            return null;
+        }
+        blobLoads.increment();
+        content = ByteBuffer.allocateDirect((int) size);
+        try (ReadableByteChannel channel = Channels.newChannel(this.open(key))) {
+            int r = 0;
+            while ( content.hasRemaining() && r >= 0 ) {
+                r = channel.read(content);
+            }
+        }
+        if ( content.hasRemaining() ) {
+            throw new DataStoreException("blob content shorter than its size for key: " + key);
+        }
+        content.flip();
+        synchronized (this.lock(key)) {
+            if ( this.locate(key) != null ) {
+                blobs.put(key, content);
+            }
+        }
+        return content.asReadOnlyBuffer();
+    }
+
+    /**
+     * Caches the size and type of a blob that has just been stored.
+     */
+    private void describe(String key, long size, String name, String type) {
+        CachedBlob cached = this.metadata(key);
+        if ( cached != null ) {
+            metadata.replace(key, cached, new CachedBlob(cached.file(), size, hint(name), type));
+        }
+    }
+
+    /**
+     * Resolves the file holding the given key (its pack segment, chunk manifest or compressed file), looking first in
+     * the packs, then in the sharded layout and last in the legacy flat one. The sharded location is checked again last
+     * because {@link DataStoreMigrator} may have moved the file in between.
+     */
+    private Path scan(String key) {
+        Path packed = packs.locate(key);
+        if ( packed != null ) {
+            return packed;
+        }
+        Path file = DataStoreLayout.blob(base, key);
+        if ( Files.exists(file) ) {
+            return file;
+        }
+        Path manifest = DataStoreLayout.manifest(base, key);
+        if ( Files.exists(manifest) ) {
+            return manifest;
+        }
+        Path compressed = DataStoreLayout.compressed(base, key);
+        if ( Files.exists(compressed) ) {
+            return compressed;
+        }
+        Path legacy = DataStoreLayout.legacy(base, key);
+        if ( Files.exists(legacy) ) {
+            return legacy;
+        }
+        return Files.exists(file) ? file : null;
+    }
+
+    /**
+     * Drops the cached location of a blob that was not found where expected, and resolves it again.
+     */
+    private Path relocateAgain(String key) throws DataNotFoundException {
+        metadata.remove(key);
+        return this.relocate(key);
+    }
+
+    private long size(String key, Path file) throws IOException {
+        if ( this.isPacked(file) ) {
+            return packs.size(key);
+        }
+        if ( DataStoreLayout.isManifest(file) ) {
+            return ChunkManifest.read(file).getSize();
+        }
+        if ( DataStoreLayout.isCompressed(file) ) {
+            return CompressedFile.size(file);
+        }
+        return Files.size(file);
+    }
+
+    private boolean isPacked(Path file) {
+        return file.startsWith(DataStoreLayout.packs(base));
+    }
+
+    private static String hint(String name) {
+        if ( name == null || name.lastIndexOf('.') < 0 ) {
+            return "";
+        }
+        return name.substring(name.lastIndexOf('.') + 1).toLowerCase(Locale.ROOT);
+    }
+
+    private Path relocate(String key) throws DataNotFoundException {
+        Path file = this.locate(key);
+        if ( file == null ) {
+            throw new DataNotFoundException("file not found in storage for key: " + key);
+        }
+        return file;
+    }
+
+    private InputStream open(String key) throws IOException, DataNotFoundException {
+        return this.open(key, 0);
+    }
+
+    private InputStream open(String key, long offset) throws IOException, DataNotFoundException {
+        Path file = this.relocate(key);
+        if ( this.isPacked(file) ) {
+            return packs.open(key, offset);
+        }
+        if ( DataStoreLayout.isManifest(file) ) {
+            return new ChunkedInputStream(ChunkManifest.read(file), hash -> DataStoreLayout.chunk(base, hash), offset);
+        }
+        if ( DataStoreLayout.isCompressed(file) ) {
+            return CompressedFile.open(file, offset);
+        }
+        SeekableByteChannel channel;
+        try {
+            channel = Files.newByteChannel(file, StandardOpenOption.READ);
+        } catch (NoSuchFileException e) {
+            channel = Files.newByteChannel(this.relocateAgain(key), StandardOpenOption.READ);
+        }
+        try {
+            channel.position(offset);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        return Channels.newInputStream(channel);
+    }
+
+    /**
+     * What is known about a stored blob. Size is negative and type null until they are first computed, the type is only
+     * valid for names with the same extension hint.
+     */
+    private record CachedBlob(Path file, long size, String hint, String type) {
+    }
+
+    private static class Stage {
+        private final HashAlgorithm algorithm;
+        private final Hasher hasher;
+        private long size;
+
+        Stage(HashAlgorithm algorithm, Hasher hasher, long size) {
+            this.algorithm = algorithm;
+            this.hasher = hasher;
+            this.size = size;
+        }
+    }
 
 }
@@ -17,6 +17,10 @@
 package fr.jayblanc.mbyte.store.data;
 
 import io.smallrye.config.ConfigMapping;
+import io.smallrye.config.WithDefault;
+
+import java.time.Duration;
+import java.util.List;
 
 /**
  * @author Jerome Blanchard
@@ -24,4 +28,186 @@ import io.smallrye.config.ConfigMapping;
 @ConfigMapping(prefix = "store.data")
 public interface DataStoreConfig {
     String home();
+
+    @WithDefault("true")
+    boolean migrate();
+
+    /**
+     * Algorithm computing the keys of new content, see {@link fr.jayblanc.mbyte.store.data.hash.HashAlgorithm}. Existing
+     * keys keep being served whatever their algorithm, but identical content is only deduplicated within an algorithm.
+     */
+    @WithDefault("sha256")
+    String hash();
+
+    /**
+     * Syncs blob contents and folder entries to disk before a write returns, syncs of concurrent writes are batched.
+     */
+    @WithDefault("false")
+    boolean sync();
+
+    @WithDefault("true")
+    boolean sendfile();
+
+    @WithDefault("private, max-age=31536000, immutable")
+    String cacheControl();
+
+    Chunking chunking();
+
+    Compression compression();
+
+    Packing packing();
+
+    Cache cache();
+
+    Scrub scrub();
+
+    Extraction extraction();
+
+    interface Chunking {
+        @WithDefault("false")
+        boolean enabled();
+
+        @WithDefault("1048576")
+        long threshold();
+
+        @WithDefault("16384")
+        int min();
+
+        @WithDefault("65536")
+        int avg();
+
+        @WithDefault("262144")
+        int max();
+    }
+
+    interface Compression {
+        @WithDefault("false")
+        boolean enabled();
+
+        @WithDefault("6")
+        int level();
+
+        /**
+         * Blobs smaller than this size are not worth compressing.
+         */
+        @WithDefault("4096")
+        long threshold();
+
+        /**
+         * Maximum compressed to original size ratio measured on the first bytes of a blob for it to be compressed.
+         */
+        @WithDefault("0.8")
+        double ratio();
+
+        /**
+         * Mime types, or prefixes of mime types, of content that is already compressed.
+         */
+        @WithDefault("image/,video/,audio/,application/zip,application/gzip,application/x-gzip,application/x-bzip2,application/x-xz,application/x-7z-compressed,application/x-rar-compressed,application/zstd,application/pdf,application/epub+zip,application/java-archive,application/vnd.openxmlformats-officedocument,application/vnd.oasis.opendocument")
+        List<String> excluded();
+    }
+
+    interface Cache {
+        /**
+         * Maximum number of blobs for which location, size and type are kept in memory.
+         */
+        @WithDefault("100000")
+        int metadata();
+
+        /**
+         * Maximum total size in bytes of blob contents kept in direct memory, 0 disables the cache.
+         */
+        @WithDefault("67108864")
+        long blobs();
+
+        /**
+         * Maximum size of a blob for its content to be cached.
+         */
+        @WithDefault("262144")
+        long blobSize();
+
+        /**
+         * Number of reads of a blob after which its content is cached.
+         */
+        @WithDefault("2")
+        int admission();
+    }
+
+    interface Packing {
+        @WithDefault("false")
+        boolean enabled();
+
+        /**
+         * Blobs smaller than this size are appended to pack segments instead of being stored in their own file.
+         */
+        @WithDefault("16384")
+        long threshold();
+
+        /**
+         * Size after which a pack segment is sealed, it must stay under 2GB for sealed segments to be memory mapped.
+         */
+        @WithDefault("67108864")
+        long segment();
+
+        /**
+         * Share of live data under which a sealed segment is compacted.
+         */
+        @WithDefault("0.5")
+        double compaction();
+    }
+
+    interface Scrub {
+        @WithDefault("true")
+        boolean enabled();
+
+        /**
+         * Time between the end of a verification pass over all blobs and the start of the next one.
+         */
+        @WithDefault("7d")
+        Duration interval();
+
+        /**
+         * Maximum read throughput of the verification in bytes per second.
+         */
+        @WithDefault("8388608")
+        long rate();
+
+        /**
+         * Moves corrupted blobs out of the store instead of only reporting them, so that they are not served anymore
+         * and can be restored by uploading the original content again.
+         */
+        @WithDefault("false")
+        boolean quarantine();
+    }
+
+    interface Extraction {
+        /**
+         * Keeps the text extracted from a blob in the store so that indexing the same content again does not parse it.
+         */
+        @WithDefault("true")
+        boolean cache();
+
+        /**
+         * Number of threads dedicated to text extraction.
+         */
+        @WithDefault("2")
+        int threads();
+
+        /**
+         * Number of extractions waiting for a thread above which new ones are rejected.
+         */
+        @WithDefault("100")
+        int queue();
+
+        /**
+         * Time limit of a single document extraction.
+         */
+        @WithDefault("60s")
+        Duration timeout();
+
+        /**
+         * Number of characters kept from a single document, further text is dropped.
+         */
+        @WithDefault("1000000")
+        int limit();
+    }
 }
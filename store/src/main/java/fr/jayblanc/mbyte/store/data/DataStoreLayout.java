@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2025 Jerome Blanchard <jayblanc@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package fr.jayblanc.mbyte.store.data;
+
+import fr.jayblanc.mbyte.store.data.hash.HashAlgorithm;
+
+import java.nio.file.Path;
+import java.util.UUID;
+
+/**
+ * On disk organisation of the data store folder.
+ * <p>
+ * Blobs are fanned out in two levels of sub folders built from the first characters of the hash part of their key
+ * (<code>ab/cd/abcd...</code>, <code>ab/cd/b3-abcd...</code>) so that no directory grows beyond a few hundred entries. Incoming streams are first
+ * written in a dedicated staging folder and moved in place once their key is known. When chunking is enabled, large
+ * blobs are stored as a <code>.manifest</code> file next to their key listing content defined chunks, themselves kept
+ * once in a sharded <code>chunks</code> folder. When compression is enabled, compressible blobs are stored deflated in a
+ * <code>.deflate</code> file next to their key. When packing is enabled, small blobs are appended to segments of a
+ * <code>packs</code> folder instead. Text extracted from blobs is kept in a sharded <code>texts</code> folder, one file
+ * per blob and extractor version. Stores created before this layout kept every blob flat in the base
+ * folder, those legacy files are still resolved until {@link DataStoreMigrator} moves them.
+ *
+ * @author Jerome Blanchard
+ */
+public class DataStoreLayout {
+
+    public static final String STAGING_FOLDER = "staging";
+    public static final String TEMP_PREFIX = "tmp-";
+    public static final String CHUNKS_FOLDER = "chunks";
+    public static final String PACKS_FOLDER = "packs";
+    public static final String QUARANTINE_FOLDER = "quarantine";
+    public static final String TEXTS_FOLDER = "texts";
+    public static final String MANIFEST_EXTENSION = ".manifest";
+    public static final String COMPRESSED_EXTENSION = ".deflate";
+    public static final String TEXT_EXTENSION = ".txt";
+    public static final int SHARD_WIDTH = 2;
+    public static final int SHARD_DEPTH = 2;
+
+    private DataStoreLayout() {
+    }
+
+    public static boolean isKey(String key) {
+        return HashAlgorithm.forKey(key) != null;
+    }
+
+    public static Path staging(Path base) {
+        return base.resolve(STAGING_FOLDER);
+    }
+
+    /**
+     * @return a new temporary file name in the staging folder, for a write that does not survive a restart
+     */
+    public static Path temp(Path base) {
+        return staging(base).resolve(TEMP_PREFIX + UUID.randomUUID());
+    }
+
+    public static Path blob(Path base, String key) {
+        return shard(base, key).resolve(key);
+    }
+
+    public static Path manifest(Path base, String key) {
+        return shard(base, key).resolve(key + MANIFEST_EXTENSION);
+    }
+
+    public static boolean isManifest(Path file) {
+        return file.getFileName().toString().endsWith(MANIFEST_EXTENSION);
+    }
+
+    public static Path compressed(Path base, String key) {
+        return shard(base, key).resolve(key + COMPRESSED_EXTENSION);
+    }
+
+    public static boolean isCompressed(Path file) {
+        return file.getFileName().toString().endsWith(COMPRESSED_EXTENSION);
+    }
+
+    /**
+     * Gives the key of a blob file, compressed blob or chunk manifest, or null if the file does not hold a blob.
+     */
+    public static String key(Path file) {
+        String name = file.getFileName().toString();
+        if ( name.endsWith(MANIFEST_EXTENSION) ) {
+            name = name.substring(0, name.length() - MANIFEST_EXTENSION.length());
+        } else if ( name.endsWith(COMPRESSED_EXTENSION) ) {
+            name = name.substring(0, name.length() - COMPRESSED_EXTENSION.length());
+        }
+        return isKey(name) ? name : null;
+    }
+
+    public static Path chunks(Path base) {
+        return base.resolve(CHUNKS_FOLDER);
+    }
+
+    public static Path chunk(Path base, String hash) {
+        return blob(chunks(base), hash);
+    }
+
+    public static Path packs(Path base) {
+        return base.resolve(PACKS_FOLDER);
+    }
+
+    public static Path quarantine(Path base) {
+        return base.resolve(QUARANTINE_FOLDER);
+    }
+
+    public static Path texts(Path base) {
+        return base.resolve(TEXTS_FOLDER);
+    }
+
+    public static Path text(Path base, String key, String version) {
+        return shard(texts(base), key).resolve(key + "." + version + TEXT_EXTENSION);
+    }
+
+    /**
+     * Gives the key of an extracted text file.
+     */
+    public static String textKey(Path file) {
+        String name = file.getFileName().toString();
+        int index = name.indexOf('.');
+        return (index > 0) ? name.substring(0, index) : null;
+    }
+
+    public static Path legacy(Path base, String key) {
+        return base.resolve(key);
+    }
+
+    private static Path shard(Path base, String key) {
+        String hash = HashAlgorithm.hash(key);
+        Path folder = base;
+        for (int i = 0; i < SHARD_DEPTH; i++) {
+            folder = folder.resolve(hash.substring(i * SHARD_WIDTH, (i + 1) * SHARD_WIDTH));
+        }
+        return folder;
+    }
+
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2025 Jerome Blanchard <jayblanc@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package fr.jayblanc.mbyte.store.data;
+
+import io.quarkus.runtime.Startup;
+import jakarta.annotation.PostConstruct;
+import jakarta.inject.Inject;
+import jakarta.inject.Singleton;
+import org.eclipse.microprofile.context.ManagedExecutor;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.UUID;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Moves blobs of a legacy flat data store into the sharded {@link DataStoreLayout}.
+ * <p>
+ * The migration runs in background at startup, one file at a time, using atomic moves. {@link DataStoreBean} resolves
+ * both locations so the store stays fully available while the migration is running.
+ *
+ * @author Jerome Blanchard
+ */
+@Startup
+@Singleton
+public class DataStoreMigrator {
+
+    private static final Logger LOGGER = Logger.getLogger(DataStoreMigrator.class.getName());
+
+    @Inject DataStoreConfig config;
+    @Inject ManagedExecutor executor;
+
+    @PostConstruct
+    public void init() {
+        if (config.migrate()) {
+            LOGGER.log(Level.INFO, "Submitting data store layout migration");
+            executor.submit(this::migrate);
+        }
+    }
+
+    public synchronized int migrate() {
+        Path base = Paths.get(config.home());
+        int migrated = 0;
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(base, Files::isRegularFile)) {
+            for (Path entry : entries) {
+                String name = entry.getFileName().toString();
+                try {
+                    if (DataStoreLayout.isKey(name)) {
+                        Path file = DataStoreLayout.blob(base, name);
+                        if (!Files.exists(file)) {
+                            Files.createDirectories(file.getParent());
+                            try {
+                                Files.move(entry, file, StandardCopyOption.ATOMIC_MOVE);
+                            } catch (FileAlreadyExistsException e) {
+                                Files.deleteIfExists(entry);
+                            }
+                        } else {
+                            Files.deleteIfExists(entry);
+                        }
+                        migrated++;
+                    } else if (isLegacyTempFile(name)) {
+                        LOGGER.log(Level.FINE, "Removing legacy temp file: " + entry);
+                        Files.deleteIfExists(entry);
+                    }
+                } catch (IOException e) {
+                    LOGGER.log(Level.WARNING, "Unable to migrate legacy file: " + entry, e);
+                }
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "Unable to list data store base folder: " + base, e);
+        }
+        if (migrated > 0) {
+            LOGGER.log(Level.INFO, "Data store layout migration done, " + migrated + " blobs moved");
+        }
+        return migrated;
+    }
+
+    private static boolean isLegacyTempFile(String name) {
+        try {
+            return UUID.fromString(name).toString().equals(name);
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+}
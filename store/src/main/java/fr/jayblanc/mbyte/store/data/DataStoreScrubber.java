@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2025 Jerome Blanchard <jayblanc@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package fr.jayblanc.mbyte.store.data;
+
+import fr.jayblanc.mbyte.store.data.exception.DataNotFoundException;
+import fr.jayblanc.mbyte.store.data.exception.DataStoreException;
+import fr.jayblanc.mbyte.store.metrics.MetricsService;
+import io.quarkus.scheduler.Scheduled;
+import jakarta.annotation.PreDestroy;
+import jakarta.inject.Inject;
+import jakarta.inject.Singleton;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
+import java.util.Properties;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+/**
+ * Verifies in background that stored blobs still hash to their key.
+ * <p>
+ * Blobs are checked in key order at a throttled rate, the last verified key being saved in a checkpoint file so that a
+ * pass interrupted by a restart resumes where it stopped. Once a pass is complete the next one starts after the
+ * configured interval. Results are counted in {@link MetricsService} under the <code>datastore.scrub.*</code> keys.
+ *
+ * @author Jerome Blanchard
+ */
+@Singleton
+public class DataStoreScrubber {
+
+    private static final Logger LOGGER = Logger.getLogger(DataStoreScrubber.class.getName());
+    private static final String CHECKPOINT_FILE = "scrub.checkpoint";
+    private static final String POSITION = "position";
+    private static final String COMPLETED = "completed";
+    private static final int CHECKPOINT_EVERY = 100;
+
+    @Inject DataStoreConfig config;
+    @Inject DataStore datastore;
+    @Inject MetricsService metrics;
+
+    private volatile boolean running = true;
+
+    @Scheduled(every = "1h", delayed = "15m", concurrentExecution = Scheduled.ConcurrentExecution.SKIP)
+    void schedule() {
+        if ( config.scrub().enabled() ) {
+            this.scrub();
+        }
+    }
+
+    @PreDestroy
+    void stop() {
+        running = false;
+    }
+
+    /**
+     * Runs or resumes a verification pass, unless the last complete pass is more recent than the configured interval.
+     *
+     * @return the number of corrupted blobs found
+     */
+    public synchronized int scrub() {
+        Properties checkpoint = this.load();
+        long completed = Long.parseLong(checkpoint.getProperty(COMPLETED, "0"));
+        String position = checkpoint.getProperty(POSITION, "");
+        if ( position.isEmpty() && System.currentTimeMillis() - completed < config.scrub().interval().toMillis() ) {
+            return 0;
+        }
+        LOGGER.log(Level.INFO, position.isEmpty() ? "Starting blob verification pass" : "Resuming blob verification pass after " + position);
+        int verified = 0;
+        int corrupted = 0;
+        try (Stream<String> keys = datastore.keys()) {
+            Iterator<String> iterator = keys.filter(key -> key.compareTo(position) > 0).sorted().iterator();
+            while ( iterator.hasNext() ) {
+                if ( !running ) {
+                    this.save(checkpoint);
+                    return corrupted;
+                }
+                String key = iterator.next();
+                try {
+                    if ( datastore.verify(key) ) {
+                        metrics.incMetric("datastore.scrub.verified");
+                    } else {
+                        metrics.incMetric("datastore.scrub.corrupted");
+                        corrupted++;
+                    }
+                } catch (DataNotFoundException e) {
+                    LOGGER.log(Level.FINE, "Blob " + key + " deleted before being verified");
+                }
+                checkpoint.setProperty(POSITION, key);
+                if ( ++verified % CHECKPOINT_EVERY == 0 ) {
+                    this.save(checkpoint);
+                }
+            }
+        } catch (DataStoreException e) {
+            LOGGER.log(Level.WARNING, "Blob verification pass interrupted", e);
+            this.save(checkpoint);
+            return corrupted;
+        }
+        checkpoint.setProperty(POSITION, "");
+        checkpoint.setProperty(COMPLETED, Long.toString(System.currentTimeMillis()));
+        this.save(checkpoint);
+        metrics.incMetric("datastore.scrub.passes");
+        LOGGER.log(Level.INFO, "Blob verification pass done, " + verified + " blobs verified, " + corrupted + " corrupted");
+        return corrupted;
+    }
+
+    private Path checkpoint() {
+        return Paths.get(config.home()).resolve(CHECKPOINT_FILE);
+    }
+
+    private Properties load() {
+        Properties checkpoint = new Properties();
+        if ( Files.exists(this.checkpoint()) ) {
+            try (InputStream is = Files.newInputStream(this.checkpoint())) {
+                checkpoint.load(is);
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Unable to read verification checkpoint, starting a new pass", e);
+            }
+        }
+        return checkpoint;
+    }
+
+    private void save(Properties checkpoint) {
+        Path tmpfile = DataStoreLayout.temp(Paths.get(config.home()));
+        try {
+            try (OutputStream os = Files.newOutputStream(tmpfile)) {
+                checkpoint.store(os, "blob verification progress");
+            }
+            Files.move(tmpfile, this.checkpoint(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Unable to save verification checkpoint", e);
+        }
+    }
+
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2025 Jerome Blanchard <jayblanc@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package fr.jayblanc.mbyte.store.data.cache;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps the content of small and frequently read blobs in direct buffers, outside of the heap.
+ * <p>
+ * A blob is only admitted once it has been requested a given number of times, so that a single scan does not flush
+ * the cache. The total size of cached contents is bounded, least recently used contents are evicted first. Blob
+ * contents never change for a given key, so entries only need to be invalidated when a blob is deleted.
+ *
+ * @author Jerome Blanchard
+ */
+public class BlobCache {
+
+    private final long capacity;
+    private final long maxSize;
+    private final int admission;
+    private final LruCache<String, Integer> frequencies;
+    private final Map<String, ByteBuffer> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long used = 0;
+
+    public BlobCache(long capacity, long maxSize, int admission) {
+        this.capacity = capacity;
+        this.maxSize = maxSize;
+        this.admission = admission;
+        this.frequencies = new LruCache<>(10000);
+    }
+
+    /**
+     * @return a read only view of the cached content, or null if the blob is not cached
+     */
+    public synchronized ByteBuffer get(String key) {
+        ByteBuffer buffer = entries.get(key);
+        return (buffer != null) ? buffer.asReadOnlyBuffer() : null;
+    }
+
+    /**
+     * Records a request for a blob that is not cached.
+     *
+     * @return true if the blob is small and requested often enough to be cached
+     */
+    public boolean admit(String key, long size) {
+        if ( capacity <= 0 || size > maxSize || size > capacity ) {
+            return false;
+        }
+        Integer frequency = frequencies.get(key);
+        frequency = (frequency == null) ? 1 : frequency + 1;
+        frequencies.put(key, frequency);
+        return frequency >= admission;
+    }
+
+    public synchronized void put(String key, ByteBuffer buffer) {
+        if ( entries.containsKey(key) ) {
+            return;
+        }
+        entries.put(key, buffer);
+        used += buffer.capacity();
+        frequencies.remove(key);
+        Iterator<ByteBuffer> eldest = entries.values().iterator();
+        while ( used > capacity && eldest.hasNext() ) {
+            used -= eldest.next().capacity();
+            eldest.remove();
+        }
+    }
+
+    public synchronized void remove(String key) {
+        ByteBuffer buffer = entries.remove(key);
+        if ( buffer != null ) {
+            used -= buffer.capacity();
+        }
+        frequencies.remove(key);
+    }
+
+    public synchronized long used() {
+        return used;
+    }
+
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2025 Jerome Blanchard <jayblanc@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package fr.jayblanc.mbyte.store.data.chunk;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Ordered list of the chunks composing a blob. Stored as a text file with one <code>hash length</code> line per chunk.
+ *
+ * @author Jerome Blanchard
+ */
+public class ChunkManifest {
+
+    private final List<Entry> entries = new ArrayList<>();
+    private long size = 0;
+
+    public ChunkManifest() {
+    }
+
+    public void add(String hash, long length) {
+        entries.add(new Entry(hash, size, length));
+        size += length;
+    }
+
+    public List<Entry> getEntries() {
+        return Collections.unmodifiableList(entries);
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public static ChunkManifest read(Path file) throws IOException {
+        ChunkManifest manifest = new ChunkManifest();
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.US_ASCII)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isBlank()) {
+                    continue;
+                }
+                int separator = line.indexOf(' ');
+                if (separator < 0) {
+                    throw new IOException("malformed chunk manifest line: " + line);
+                }
+                manifest.add(line.substring(0, separator), Long.parseLong(line.substring(separator + 1)));
+            }
+        } catch (NumberFormatException e) {
+            throw new IOException("malformed chunk manifest: " + file, e);
+        }
+        return manifest;
+    }
+
+    public void write(Path file) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.US_ASCII)) {
+            for (Entry entry : entries) {
+                writer.write(entry.hash() + " " + entry.length());
+                writer.newLine();
+            }
+        }
+    }
+
+    public record Entry(String hash, long offset, long length) {
+    }
+
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2025 Jerome Blanchard <jayblanc@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package fr.jayblanc.mbyte.store.data.chunk;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Reassembles a chunked blob on the fly, opening its chunks one after the other. Reading can start at any offset, the
+ * chunks before it are not opened at all.
+ *
+ * @author Jerome Blanchard
+ */
+public class ChunkedInputStream extends InputStream {
+
+    private final List<ChunkManifest.Entry> entries;
+    private final Function<String, Path> resolver;
+    private int index;
+    private long position;
+    private InputStream current;
+
+    public ChunkedInputStream(ChunkManifest manifest, Function<String, Path> resolver, long offset) {
+        this.entries = manifest.getEntries();
+        this.resolver = resolver;
+        this.index = 0;
+        while (index < entries.size() && entries.get(index).offset() + entries.get(index).length() <= offset) {
+            index++;
+        }
+        this.position = offset;
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] b = new byte[1];
+        int r = this.read(b, 0, 1);
+        return (r == -1) ? -1 : b[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) throws IOException {
+        if (length == 0) {
+            return 0;
+        }
+        while (true) {
+            if (current == null) {
+                if (index >= entries.size()) {
+                    return -1;
+                }
+                ChunkManifest.Entry entry = entries.get(index);
+                SeekableByteChannel channel = Files.newByteChannel(resolver.apply(entry.hash()), StandardOpenOption.READ);
+                channel.position(Math.max(0, position - entry.offset()));
+                current = Channels.newInputStream(channel);
+            }
+            int r = current.read(bytes, offset, length);
+            if (r != -1) {
+                position += r;
+                return r;
+            }
+            current.close();
+            current = null;
+            index++;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (current != null) {
+            current.close();
+            current = null;
+        }
+        index = entries.size();
+    }
+
+}
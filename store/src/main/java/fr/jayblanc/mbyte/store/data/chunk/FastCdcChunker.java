@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2025 Jerome Blanchard <jayblanc@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package fr.jayblanc.mbyte.store.data.chunk;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Content defined chunker implementing FastCDC (Xia et al., USENIX ATC 2016) with normalized chunking.
+ * <p>
+ * A Gear rolling hash is computed over the stream and a chunk boundary is declared when the hash matches a mask. A
+ * stricter mask is used before the expected average size and a looser one after it, which keeps chunk sizes close to
+ * the average. Because boundaries only depend on local content, inserting or removing bytes in a stream only changes
+ * the chunks around the edit.
+ * <p>
+ * The Gear table is generated from a fixed seed: it must never change, otherwise already stored chunks would no longer
+ * be shared with new content.
+ *
+ * @author Jerome Blanchard
+ */
+public class FastCdcChunker {
+
+    private static final long[] GEAR = new long[256];
+    static {
+        long seed = 0x6d627974652e6672L;
+        for (int i = 0; i < GEAR.length; i++) {
+            // SplitMix64
+            seed += 0x9E3779B97F4A7C15L;
+            long z = seed;
+            z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+            z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+            GEAR[i] = z ^ (z >>> 31);
+        }
+    }
+
+    private final InputStream in;
+    private final int min;
+    private final int avg;
+    private final int max;
+    private final long maskS;
+    private final long maskL;
+    private final byte[] buffer;
+    private int start = 0;
+    private int end = 0;
+    private boolean eof = false;
+
+    public FastCdcChunker(InputStream in, int min, int avg, int max) {
+        if (min <= 0 || min > avg || avg > max) {
+            throw new IllegalArgumentException("invalid chunk sizes, expected 0 < min <= avg <= max");
+        }
+        this.in = in;
+        this.min = min;
+        this.avg = avg;
+        this.max = max;
+        int bits = 63 - Long.numberOfLeadingZeros(avg);
+        this.maskS = mask(bits + 1);
+        this.maskL = mask(Math.max(1, bits - 1));
+        this.buffer = new byte[max];
+    }
+
+    /**
+     * @return the next chunk of the stream or null when the stream is exhausted
+     */
+    public byte[] next() throws IOException {
+        if (end - start < max && !eof) {
+            System.arraycopy(buffer, start, buffer, 0, end - start);
+            end -= start;
+            start = 0;
+            int r = in.readNBytes(buffer, end, max - end);
+            end += r;
+            eof = end < max;
+        }
+        if (end == start) {
+            return null;
+        }
+        int length = this.cut(start, end - start);
+        byte[] chunk = Arrays.copyOfRange(buffer, start, start + length);
+        start += length;
+        return chunk;
+    }
+
+    private int cut(int offset, int length) {
+        if (length <= min) {
+            return length;
+        }
+        int n = Math.min(length, max);
+        int normal = Math.min(n, avg);
+        long fp = 0;
+        int i = min;
+        for (; i < normal; i++) {
+            fp = (fp << 1) + GEAR[buffer[offset + i] & 0xff];
+            if ((fp & maskS) == 0) {
+                return i;
+            }
+        }
+        for (; i < n; i++) {
+            fp = (fp << 1) + GEAR[buffer[offset + i] & 0xff];
+            if ((fp & maskL) == 0) {
+                return i;
+            }
+        }
+        return n;
+    }
+
+    private static long mask(int bits) {
+        // use the most significant bits, they depend on the widest window of the Gear hash
+        return ((1L << bits) - 1) << (64 - bits);
+    }
+
+}
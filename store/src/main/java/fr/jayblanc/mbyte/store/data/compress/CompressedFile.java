@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2025 Jerome Blanchard <jayblanc@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package fr.jayblanc.mbyte.store.data.compress;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * A blob stored deflated on disk. The file starts with the logical size of the blob so that it can be known without
+ * inflating the content, followed by the deflate stream.
+ *
+ * @author Jerome Blanchard
+ */
+public class CompressedFile {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private CompressedFile() {
+    }
+
+    /**
+     * Estimates the compression ratio of a content from a sample of it.
+     *
+     * @return the compressed size divided by the sample size
+     */
+    public static double ratio(byte[] sample, int level) {
+        if ( sample.length == 0 ) {
+            return 1;
+        }
+        Deflater deflater = new Deflater(level);
+        try {
+            deflater.setInput(sample);
+            deflater.finish();
+            byte[] buffer = new byte[BUFFER_SIZE];
+            long compressed = 0;
+            while ( !deflater.finished() ) {
+                compressed += deflater.deflate(buffer);
+            }
+            return (double) compressed / sample.length;
+        } finally {
+            deflater.end();
+        }
+    }
+
+    public static void write(Path source, Path target, int level) throws IOException {
+        Deflater deflater = new Deflater(level);
+        try (InputStream is = Files.newInputStream(source);
+             DataOutputStream os = new DataOutputStream(Files.newOutputStream(target))) {
+            os.writeLong(Files.size(source));
+            DeflaterOutputStream dos = new DeflaterOutputStream(os, deflater, BUFFER_SIZE);
+            is.transferTo(dos);
+            dos.finish();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    public static long size(Path file) throws IOException {
+        try (DataInputStream is = new DataInputStream(Files.newInputStream(file))) {
+            return is.readLong();
+        }
+    }
+
+    /**
+     * Opens an inflating stream on the file, positioned at the given logical offset. An offset past the end gives an
+     * empty stream, as for a plain file.
+     */
+    public static InputStream open(Path file, long offset) throws IOException {
+        InputStream is = Files.newInputStream(file);
+        Inflater inflater = new Inflater();
+        InputStream iis = new InflaterInputStream(is, inflater, BUFFER_SIZE) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    inflater.end();
+                }
+            }
+        };
+        try {
+            new DataInputStream(is).readLong();
+            long remaining = offset;
+            long skipped;
+            while ( remaining > 0 && (skipped = iis.skip(remaining)) > 0 ) {
+                remaining -= skipped;
+            }
+            return iis;
+        } catch (IOException e) {
+            iis.close();
+            throw e;
+        }
+    }
+
+}
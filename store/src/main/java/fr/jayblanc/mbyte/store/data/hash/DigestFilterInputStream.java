@@ -16,20 +16,24 @@
  */
 package fr.jayblanc.mbyte.store.data.hash;
 
-import org.apache.commons.codec.binary.Hex;
-
 import java.io.IOException;
 import java.io.InputStream;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
 
-public class SHA256FilterInputStream extends HashedFilterInputStream {
+/**
+ * Hashes the bytes read with any of the registered algorithms.
+ *
+ * @author Jerome Blanchard
+ */
+public class DigestFilterInputStream extends HashedFilterInputStream {
 
-    private final MessageDigest digest;
+    private final HashAlgorithm algorithm;
+    private final Hasher hasher;
+    private final byte[] single = new byte[1];
 
-    protected SHA256FilterInputStream(InputStream in) throws NoSuchAlgorithmException {
+    protected DigestFilterInputStream(InputStream in, HashAlgorithm algorithm, Hasher hasher) {
         super(in);
-        digest = MessageDigest.getInstance("SHA-256");
+        this.algorithm = algorithm;
+        this.hasher = hasher;
     }
 
     @Override
@@ -38,7 +42,8 @@ public class SHA256FilterInputStream extends HashedFilterInputStream {
         if (c == -1) {
             return -1;
         }
-        digest.update((byte)(c & 0xff));
+        single[0] = (byte) c;
+        hasher.update(single, 0, 1);
         return c;
     }
 
@@ -48,12 +53,31 @@ public class SHA256FilterInputStream extends HashedFilterInputStream {
         if ((r = in.read(bytes, offset, length)) == -1) {
             return r;
         }
-        digest.update(bytes, offset, r);
+        hasher.update(bytes, offset, r);
         return r;
     }
 
+    /**
+     * Skipped bytes are read so that they are part of the hash.
+     */
+    @Override
+    public long skip(long n) throws IOException {
+        byte[] buffer = new byte[(int) Math.min(Math.max(n, 0), 8192)];
+        long skipped = 0;
+        int r;
+        while (skipped < n && (r = this.read(buffer, 0, (int) Math.min(buffer.length, n - skipped))) > 0) {
+            skipped += r;
+        }
+        return skipped;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
     @Override
-    public String getHash(){
-        return Hex.encodeHexString(digest.digest());
+    public String getHash() {
+        return algorithm.key(hasher.digest());
     }
 }
@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2025 Jerome Blanchard <jayblanc@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package fr.jayblanc.mbyte.store.data.hash;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.codec.digest.Blake3;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.regex.Pattern;
+
+/**
+ * Registry of the hash algorithms that can compute content keys.
+ * <p>
+ * The algorithm is recorded in the key itself as a <code>prefix-</code> before the hexadecimal hash, so that keys of
+ * different algorithms never collide and each key can be verified with the algorithm that produced it. SHA-256 keys
+ * have no prefix to stay compatible with stores created before the registry.
+ *
+ * @author Jerome Blanchard
+ */
+public enum HashAlgorithm {
+
+    SHA256("sha256", "") {
+        @Override
+        public Hasher hasher() {
+            try {
+                MessageDigest digest = MessageDigest.getInstance("SHA-256");
+                return new Hasher() {
+                    @Override
+                    public void update(byte[] bytes, int offset, int length) {
+                        digest.update(bytes, offset, length);
+                    }
+
+                    @Override
+                    public byte[] digest() {
+                        return digest.digest();
+                    }
+                };
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException("SHA-256 is not available", e);
+            }
+        }
+    },
+    BLAKE3("blake3", "b3-") {
+        @Override
+        public Hasher hasher() {
+            Blake3 blake3 = Blake3.initHash();
+            return new Hasher() {
+                @Override
+                public void update(byte[] bytes, int offset, int length) {
+                    blake3.update(bytes, offset, length);
+                }
+
+                @Override
+                public byte[] digest() {
+                    return blake3.doFinalize(32);
+                }
+            };
+        }
+    };
+
+    private static final Pattern HASH_PATTERN = Pattern.compile("^[0-9a-f]{64}$");
+
+    private final String name;
+    private final String prefix;
+
+    HashAlgorithm(String name, String prefix) {
+        this.name = name;
+        this.prefix = prefix;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public abstract Hasher hasher();
+
+    public String key(byte[] digest) {
+        return prefix + Hex.encodeHexString(digest);
+    }
+
+    /**
+     * @return the hexadecimal hash part of a key
+     */
+    public static String hash(String key) {
+        return key.substring(key.length() - 64);
+    }
+
+    public static HashAlgorithm forName(String name) {
+        return Arrays.stream(values()).filter(algorithm -> algorithm.name.equalsIgnoreCase(name)).findFirst()
+                .orElseThrow(() -> new IllegalArgumentException("unknown hash algorithm: " + name));
+    }
+
+    /**
+     * @return the algorithm that produced the key, or null if the string is not a valid key
+     */
+    public static HashAlgorithm forKey(String key) {
+        if ( key == null || key.length() < 64 || !HASH_PATTERN.matcher(hash(key)).matches() ) {
+            return null;
+        }
+        String keyPrefix = key.substring(0, key.length() - 64);
+        return Arrays.stream(values()).filter(algorithm -> algorithm.prefix.equals(keyPrefix)).findFirst().orElse(null);
+    }
+
+}
@@ -18,7 +18,6 @@ package fr.jayblanc.mbyte.store.data.hash;
 
 import java.io.FilterInputStream;
 import java.io.InputStream;
-import java.security.NoSuchAlgorithmException;
 
 /**
  * @author Jerome Blanchard (jerome.blanchard@fairandsmart.com)
@@ -32,8 +31,19 @@ public abstract class HashedFilterInputStream extends FilterInputStream {
 
 	public abstract String getHash();
 
-	public static HashedFilterInputStream SHA256(InputStream is) throws NoSuchAlgorithmException {
-		return new SHA256FilterInputStream(is);
+	public static HashedFilterInputStream SHA256(InputStream is) {
+		return of(is, HashAlgorithm.SHA256);
+	}
+
+	public static HashedFilterInputStream of(InputStream is, HashAlgorithm algorithm) {
+		return new DigestFilterInputStream(is, algorithm, algorithm.hasher());
+	}
+
+	/**
+	 * Continues a hash computation started on previous streams, the given hasher is updated with the bytes read.
+	 */
+	public static HashedFilterInputStream of(InputStream is, HashAlgorithm algorithm, Hasher hasher) {
+		return new DigestFilterInputStream(is, algorithm, hasher);
 	}
 
 }
@@ -0,0 +1,339 @@
+/*
+ * Copyright (C) 2025 Jerome Blanchard <jayblanc@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package fr.jayblanc.mbyte.store.data.pack;
+
+import fr.jayblanc.mbyte.store.data.hash.HashAlgorithm;
+import fr.jayblanc.mbyte.store.data.hash.Hasher;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+/**
+ * Append only storage of small blobs in pack segments, avoiding one file (and one open) per blob.
+ * <p>
+ * Each segment is a <code>.pack</code> data file and a <code>.idx</code> text file listing
+ * <code>+ key offset length time</code> lines for added blobs, <code>* key time</code> lines for touched ones and
+ * <code>- key</code> lines for deleted ones. Data is
+ * always written before its index line so that an interrupted write only leaves unreferenced bytes, and blobs of the
+ * active segment are checked against their key at startup in case the index reached the disk first. Indexes are
+ * replayed in segment order at startup, a later segment overriding an earlier one. Once a segment reaches its maximum
+ * size it is sealed and read through a memory mapping. Sealed segments mostly made of deleted blobs are compacted by
+ * copying their live blobs in the active segment.
+ *
+ * @author Jerome Blanchard
+ */
+public class PackStore {
+
+    private static final Logger LOGGER = Logger.getLogger(PackStore.class.getName());
+    private static final String DATA_EXTENSION = ".pack";
+    private static final String INDEX_EXTENSION = ".idx";
+
+    private final Path folder;
+    private final long segmentSize;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final Map<Long, MappedByteBuffer> mappings = new ConcurrentHashMap<>();
+    private volatile long active;
+    private FileChannel data;
+    private FileChannel index;
+
+    public PackStore(Path folder, long segmentSize) {
+        this.folder = folder;
+        this.segmentSize = segmentSize;
+    }
+
+    public synchronized void load() throws IOException {
+        Files.createDirectories(folder);
+        List<Long> segments = this.segments();
+        for (long segment : segments) {
+            for (String line : Files.readAllLines(this.index(segment), StandardCharsets.US_ASCII)) {
+                String[] parts = line.split(" ");
+                try {
+                    if ( parts.length == 5 && parts[0].equals("+") ) {
+                        entries.put(parts[1], new Entry(segment, Long.parseLong(parts[2]), Integer.parseInt(parts[3]), Long.parseLong(parts[4])));
+                    } else if ( parts.length == 3 && parts[0].equals("*") ) {
+                        long time = Long.parseLong(parts[2]);
+                        entries.computeIfPresent(parts[1], (key, entry) -> entry.withTime(time));
+                    } else if ( parts.length == 2 && parts[0].equals("-") ) {
+                        entries.remove(parts[1]);
+                    } else if ( !line.isBlank() ) {
+                        LOGGER.log(Level.WARNING, "Ignoring malformed line in pack index " + segment + ": " + line);
+                    }
+                } catch (NumberFormatException e) {
+                    LOGGER.log(Level.WARNING, "Ignoring malformed line in pack index " + segment + ": " + line);
+                }
+            }
+        }
+        this.open(segments.isEmpty() ? 0 : segments.get(segments.size() - 1));
+        this.verify();
+        LOGGER.log(Level.INFO, "Loaded " + entries.size() + " packed blobs from " + segments.size() + " segments");
+    }
+
+    public synchronized void close() throws IOException {
+        if ( data != null ) {
+            data.close();
+            index.close();
+        }
+    }
+
+    public boolean contains(String key) {
+        return entries.containsKey(key);
+    }
+
+    /**
+     * @return the data file of the segment holding the blob, or null if the blob is not packed
+     */
+    public Path locate(String key) {
+        Entry entry = entries.get(key);
+        return (entry != null) ? this.data(entry.segment()) : null;
+    }
+
+    /**
+     * @return the data and index files of the segment holding the blob, that must be synced for the blob to be durable
+     */
+    public List<Path> files(String key) {
+        Entry entry = entries.get(key);
+        return (entry != null) ? List.of(this.data(entry.segment()), this.index(entry.segment())) : List.of();
+    }
+
+    public Set<String> keys() {
+        return entries.keySet();
+    }
+
+    public long size(String key) throws NoSuchFileException {
+        return this.entry(key).length();
+    }
+
+    public long modified(String key) {
+        Entry entry = entries.get(key);
+        return (entry != null) ? entry.time() : -1;
+    }
+
+    /**
+     * Updates the time of a blob and records it in the index of its segment, so that it survives a restart. Touches are
+     * serialized with compaction, which copies blobs with their current time.
+     */
+    public synchronized boolean touch(String key) throws IOException {
+        Entry entry = entries.computeIfPresent(key, (k, e) -> e.withTime(System.currentTimeMillis()));
+        if ( entry == null ) {
+            return false;
+        }
+        try (FileChannel channel = FileChannel.open(this.index(entry.segment()), StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            channel.write(ByteBuffer.wrap(("* " + key + " " + entry.time() + "\n").getBytes(StandardCharsets.US_ASCII)));
+        }
+        return true;
+    }
+
+    public synchronized void put(String key, Path source) throws IOException {
+        if ( entries.containsKey(key) ) {
+            this.touch(key);
+            return;
+        }
+        this.append(key, Files.readAllBytes(source), System.currentTimeMillis());
+    }
+
+    public InputStream open(String key, long offset) throws IOException {
+        Entry entry = this.entry(key);
+        byte[] content;
+        try {
+            content = this.read(entry);
+        } catch (NoSuchFileException e) {
+            Entry moved = this.entry(key);
+            if ( moved.equals(entry) ) {
+                throw e;
+            }
+            content = this.read(moved);
+        }
+        int start = (int) Math.min(offset, content.length);
+        return new ByteArrayInputStream(content, start, content.length - start);
+    }
+
+    public synchronized boolean delete(String key) throws IOException {
+        Entry entry = entries.remove(key);
+        if ( entry == null ) {
+            return false;
+        }
+        try (FileChannel channel = FileChannel.open(this.index(entry.segment()), StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            channel.write(ByteBuffer.wrap(("- " + key + "\n").getBytes(StandardCharsets.US_ASCII)));
+        }
+        return true;
+    }
+
+    /**
+     * Rewrites the live blobs of sealed segments whose share of live data dropped under the given ratio and removes
+     * those segments. Nothing is compacted when the folder does not exist, packing being disabled.
+     *
+     * @return the number of removed segments
+     */
+    public synchronized int compact(double ratio) throws IOException {
+        int removed = 0;
+        if ( !Files.isDirectory(folder) ) {
+            return removed;
+        }
+        for (long segment : this.segments()) {
+            if ( segment == active ) {
+                continue;
+            }
+            long total = Files.size(this.data(segment));
+            List<Map.Entry<String, Entry>> live = entries.entrySet().stream().filter(e -> e.getValue().segment() == segment).toList();
+            long used = live.stream().mapToLong(e -> e.getValue().length()).sum();
+            if ( total > 0 && (double) used / total >= ratio ) {
+                continue;
+            }
+            LOGGER.log(Level.INFO, "Compacting pack segment " + segment + ", " + used + " live bytes out of " + total);
+            for (Map.Entry<String, Entry> e : live) {
+                this.append(e.getKey(), this.read(e.getValue()), e.getValue().time());
+            }
+            mappings.remove(segment);
+            Files.deleteIfExists(this.index(segment));
+            Files.deleteIfExists(this.data(segment));
+            removed++;
+        }
+        return removed;
+    }
+
+    /**
+     * Checks the blobs of the active segment against their key. Data and index of this segment may not have reached the
+     * disk in order before a crash, an index line can then reference bytes that were never written.
+     */
+    private void verify() throws IOException {
+        List<Map.Entry<String, Entry>> recent = entries.entrySet().stream().filter(e -> e.getValue().segment() == active).toList();
+        for (Map.Entry<String, Entry> e : recent) {
+            HashAlgorithm algorithm = HashAlgorithm.forKey(e.getKey());
+            if ( algorithm == null ) {
+                continue;
+            }
+            Entry entry = e.getValue();
+            byte[] content = entry.offset() + entry.length() <= data.size() ? this.read(entry) : null;
+            Hasher hasher = algorithm.hasher();
+            if ( content != null ) {
+                hasher.update(content, 0, content.length);
+            }
+            if ( content == null || !algorithm.key(hasher.digest()).equals(e.getKey()) ) {
+                LOGGER.log(Level.WARNING, "Dropping corrupted packed blob " + e.getKey() + " from segment " + active);
+                this.delete(e.getKey());
+            }
+        }
+    }
+
+    private void append(String key, byte[] content, long time) throws IOException {
+        if ( data.size() > 0 && data.size() + content.length > segmentSize ) {
+            this.close();
+            this.open(active + 1);
+        }
+        long offset = data.size();
+        ByteBuffer buffer = ByteBuffer.wrap(content);
+        while ( buffer.hasRemaining() ) {
+            data.write(buffer, offset + buffer.position());
+        }
+        index.write(ByteBuffer.wrap(("+ " + key + " " + offset + " " + content.length + " " + time + "\n").getBytes(StandardCharsets.US_ASCII)));
+        entries.put(key, new Entry(active, offset, content.length, time));
+    }
+
+    private byte[] read(Entry entry) throws IOException {
+        byte[] content = new byte[entry.length()];
+        if ( entry.segment() != active ) {
+            MappedByteBuffer mapping = this.mapping(entry.segment());
+            if ( mapping != null ) {
+                mapping.get((int) entry.offset(), content);
+                return content;
+            }
+        }
+        try (FileChannel channel = FileChannel.open(this.data(entry.segment()), StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.wrap(content);
+            while ( buffer.hasRemaining() ) {
+                if ( channel.read(buffer, entry.offset() + buffer.position()) < 0 ) {
+                    throw new IOException("unexpected end of pack segment " + entry.segment());
+                }
+            }
+        }
+        return content;
+    }
+
+    /**
+     * Maps a sealed segment in memory. Returns null when the segment has just been compacted away, in which case the
+     * caller falls back to a plain read that fails with a NoSuchFileException, the blob is then looked up again as it
+     * has been moved to the active segment before the removal.
+     */
+    private MappedByteBuffer mapping(long segment) throws IOException {
+        MappedByteBuffer mapping = mappings.get(segment);
+        if ( mapping == null ) {
+            try (FileChannel channel = FileChannel.open(this.data(segment), StandardOpenOption.READ)) {
+                mapping = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                MappedByteBuffer existing = mappings.putIfAbsent(segment, mapping);
+                mapping = (existing != null) ? existing : mapping;
+            } catch (NoSuchFileException e) {
+                return null;
+            }
+        }
+        return mapping;
+    }
+
+    private Entry entry(String key) throws NoSuchFileException {
+        Entry entry = entries.get(key);
+        if ( entry == null ) {
+            throw new NoSuchFileException("blob not found in packs: " + key);
+        }
+        return entry;
+    }
+
+    private void open(long segment) throws IOException {
+        this.active = segment;
+        this.data = FileChannel.open(this.data(segment), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.index = FileChannel.open(this.index(segment), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    private List<Long> segments() throws IOException {
+        try (Stream<Path> files = Files.list(folder)) {
+            return files.map(file -> file.getFileName().toString())
+                    .filter(name -> name.endsWith(INDEX_EXTENSION))
+                    .map(name -> Long.parseLong(name.substring(0, name.length() - INDEX_EXTENSION.length())))
+                    .sorted()
+                    .toList();
+        }
+    }
+
+    private Path data(long segment) {
+        return folder.resolve(String.format("%012d", segment) + DATA_EXTENSION);
+    }
+
+    private Path index(long segment) {
+        return folder.resolve(String.format("%012d", segment) + INDEX_EXTENSION);
+    }
+
+    private record Entry(long segment, long offset, int length, long time) {
+        Entry withTime(long time) {
+            return new Entry(segment, offset, length, time);
+        }
+    }
+
+}
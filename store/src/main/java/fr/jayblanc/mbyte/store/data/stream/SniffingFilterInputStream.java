@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2025 Jerome Blanchard <jayblanc@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package fr.jayblanc.mbyte.store.data.stream;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Keeps a copy of the first bytes read through the stream so that the content type can be sniffed once the stream has
+ * been consumed, without opening the data again.
+ *
+ * @author Jerome Blanchard
+ */
+public class SniffingFilterInputStream extends FilterInputStream {
+
+    private final byte[] prefix;
+    private int length;
+
+    public SniffingFilterInputStream(InputStream in, int capacity) {
+        super(in);
+        this.prefix = new byte[capacity];
+        this.length = 0;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int c = in.read();
+        if (c != -1 && length < prefix.length) {
+            prefix[length++] = (byte) c;
+        }
+        return c;
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int len) throws IOException {
+        int r = in.read(bytes, offset, len);
+        if (r > 0 && length < prefix.length) {
+            int n = Math.min(r, prefix.length - length);
+            System.arraycopy(bytes, offset, prefix, length, n);
+            length += n;
+        }
+        return r;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        byte[] buffer = new byte[(int) Math.min(n, 8192)];
+        long skipped = 0;
+        int r;
+        while (skipped < n && (r = read(buffer, 0, (int) Math.min(buffer.length, n - skipped))) != -1) {
+            skipped += r;
+        }
+        return skipped;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    public byte[] getPrefix() {
+        return Arrays.copyOf(prefix, length);
+    }
+
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2025 Jerome Blanchard <jayblanc@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package fr.jayblanc.mbyte.store.data.stream;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+
+/**
+ * Slows reads down so that the average throughput stays under <code>rate</code> bytes per second, a rate of zero or
+ * less disables throttling.
+ *
+ * @author Jerome Blanchard
+ */
+public class ThrottledInputStream extends FilterInputStream {
+
+    private final long rate;
+    private final long start;
+    private long count = 0;
+
+    public ThrottledInputStream(InputStream in, long rate) {
+        super(in);
+        this.rate = rate;
+        this.start = System.nanoTime();
+    }
+
+    @Override
+    public int read() throws IOException {
+        int c = in.read();
+        if (c != -1) {
+            this.throttle(1);
+        }
+        return c;
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) throws IOException {
+        int r = in.read(bytes, offset, length);
+        if (r > 0) {
+            this.throttle(r);
+        }
+        return r;
+    }
+
+    private void throttle(int read) throws IOException {
+        if (rate <= 0) {
+            return;
+        }
+        count += read;
+        long expected = count * 1000 / rate;
+        long elapsed = (System.nanoTime() - start) / 1000000;
+        if (expected > elapsed) {
+            try {
+                Thread.sleep(expected - elapsed);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("interrupted while throttling");
+            }
+        }
+    }
+
+}
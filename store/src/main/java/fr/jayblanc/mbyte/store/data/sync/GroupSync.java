@@ -0,0 +1,163 @@
+/*
+ * Copyright (C) 2025 Jerome Blanchard <jayblanc@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package fr.jayblanc.mbyte.store.data.sync;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Flushes files and directory entries to disk on behalf of concurrent writers.
+ * <p>
+ * Writers enqueue the paths they need to be durable and wait. A single flusher thread takes every pending request at
+ * once, syncs each distinct path of the batch a single time and then releases all the writers of the batch. Requests
+ * arriving while a batch is being flushed form the next batch, so the cost of shared syncs (directories, pack
+ * segments) is paid once per batch instead of once per writer. When disabled, requests return immediately.
+ *
+ * @author Jerome Blanchard
+ */
+public class GroupSync {
+
+    private static final Logger LOGGER = Logger.getLogger(GroupSync.class.getName());
+
+    private final boolean enabled;
+    private final BlockingQueue<Request> queue = new LinkedBlockingQueue<>();
+    private Thread flusher;
+    private volatile boolean running;
+
+    public GroupSync(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public void start() {
+        if ( enabled ) {
+            running = true;
+            flusher = new Thread(this::flush, "datastore-sync");
+            flusher.setDaemon(true);
+            flusher.start();
+        }
+    }
+
+    public void stop() {
+        running = false;
+        if ( flusher != null ) {
+            flusher.interrupt();
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void sync(Path... paths) throws IOException {
+        this.sync(List.of(paths));
+    }
+
+    /**
+     * Waits until the content of the given files, or the entries of the given directories, are on disk.
+     */
+    public void sync(List<Path> paths) throws IOException {
+        if ( !enabled || paths.isEmpty() ) {
+            return;
+        }
+        if ( !running ) {
+            throw new IOException("data store sync stopped");
+        }
+        Request request = new Request(paths, new CompletableFuture<>());
+        queue.add(request);
+        if ( !running && queue.remove(request) ) {
+            // stopped between the check and the enqueue, the flusher may already have drained the queue and exited
+            throw new IOException("data store sync stopped");
+        }
+        try {
+            request.done().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while waiting for sync", e);
+        } catch (ExecutionException e) {
+            throw (e.getCause() instanceof IOException ioe) ? ioe : new IOException("unable to sync", e.getCause());
+        }
+    }
+
+    private void flush() {
+        while ( running ) {
+            List<Request> batch = new ArrayList<>();
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException e) {
+                break;
+            }
+            queue.drainTo(batch);
+            Set<Path> paths = new LinkedHashSet<>();
+            batch.forEach(request -> paths.addAll(request.paths()));
+            Map<Path, IOException> failures = new HashMap<>();
+            for (Path path : paths) {
+                try {
+                    this.force(path);
+                } catch (IOException e) {
+                    failures.put(path, e);
+                }
+            }
+            LOGGER.log(Level.FINEST, "Synced " + paths.size() + " paths for " + batch.size() + " writers");
+            for (Request request : batch) {
+                IOException failure = request.paths().stream().map(failures::get).filter(e -> e != null).findFirst().orElse(null);
+                if ( failure != null ) {
+                    request.done().completeExceptionally(failure);
+                } else {
+                    request.done().complete(null);
+                }
+            }
+        }
+        Request pending;
+        while ( (pending = queue.poll()) != null ) {
+            pending.done().completeExceptionally(new IOException("data store sync stopped"));
+        }
+    }
+
+    private void force(Path path) throws IOException {
+        if ( Files.isDirectory(path) ) {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                channel.force(true);
+            } catch (IOException e) {
+                // some platforms cannot open or sync directories, entries are then as durable as the platform allows
+                LOGGER.log(Level.FINE, "Unable to sync directory: " + path, e);
+            }
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            channel.force(true);
+        }
+    }
+
+    private record Request(List<Path> paths, CompletableFuture<Void> done) {
+    }
+
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2025 Jerome Blanchard <jayblanc@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package fr.jayblanc.mbyte.store.data.text;
+
+import org.apache.tika.exception.TikaException;
+import org.apache.tika.exception.WriteLimitReachedException;
+import org.apache.tika.metadata.Metadata;
+import org.apache.tika.parser.AutoDetectParser;
+import org.apache.tika.parser.ParseContext;
+import org.apache.tika.sax.BodyContentHandler;
+import org.xml.sax.SAXException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.time.Duration;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Extracts text from content on a dedicated pool of low priority threads, isolated from request and indexing threads.
+ * <p>
+ * The pool and its queue are bounded: when they are full, extraction is rejected instead of piling up. Each document
+ * is given a time limit after which its extraction is cancelled and its stream closed, and a character limit after
+ * which the text is truncated, so that a single pathological document can neither pin a caller nor fill the heap. The
+ * parser is thread safe and shared by all extractions.
+ *
+ * @author Jerome Blanchard
+ */
+public class TextExtractor {
+
+    private final AutoDetectParser parser = new AutoDetectParser();
+    private final ThreadPoolExecutor executor;
+    private final long timeout;
+    private final int limit;
+
+    public TextExtractor(int threads, int queue, Duration timeout, int limit) {
+        AtomicInteger count = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(queue), runnable -> {
+            Thread thread = new Thread(runnable, "datastore-extract-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+        this.timeout = timeout.toMillis();
+        this.limit = limit;
+    }
+
+    /**
+     * Extracts the text of a stream, waiting at most the configured time limit. The stream is closed when the limit is
+     * reached to release a parser blocked on it, the caller remains responsible for closing it otherwise.
+     *
+     * @throws java.util.concurrent.RejectedExecutionException if the extraction queue is full
+     * @throws TimeoutException if the extraction took longer than the time limit
+     */
+    public Text extract(InputStream stream, String type) throws IOException, TimeoutException {
+        Future<Text> future = executor.submit(() -> this.parse(stream, type));
+        try {
+            return future.get(timeout, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            stream.close();
+            throw e;
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while waiting for text extraction");
+        } catch (ExecutionException e) {
+            if ( e.getCause() instanceof IOException ioe ) {
+                throw ioe;
+            }
+            throw new IOException("unable to extract text", e.getCause());
+        }
+    }
+
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    private Text parse(InputStream stream, String type) throws IOException, SAXException, TikaException {
+        BodyContentHandler handler = new BodyContentHandler(limit);
+        Metadata metadata = new Metadata();
+        metadata.set(Metadata.CONTENT_TYPE, type);
+        try {
+            parser.parse(stream, handler, metadata, new ParseContext());
+            return new Text(handler.toString(), false);
+        } catch (SAXException | TikaException e) {
+            // some parsers wrap the write limit exception in a TikaException
+            if ( WriteLimitReachedException.isWriteLimitReached(e) ) {
+                return new Text(handler.toString(), true);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * @param content the extracted text
+     * @param truncated true if the text has been cut at the character limit
+     */
+    public record Text(String content, boolean truncated) {
+    }
+
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2025 Jerome Blanchard <jayblanc@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package fr.jayblanc.mbyte.store.files;
+
+import fr.jayblanc.mbyte.store.data.DataStore;
+import fr.jayblanc.mbyte.store.data.exception.DataStoreException;
+import fr.jayblanc.mbyte.store.upload.UploadConfig;
+import io.quarkus.narayana.jta.QuarkusTransaction;
+import io.quarkus.scheduler.Scheduled;
+import jakarta.inject.Inject;
+import jakarta.inject.Singleton;
+import jakarta.persistence.EntityManager;
+
+import java.util.Iterator;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Blobs are deduplicated by content so removing a node cannot remove its blob. The collector periodically marks the
+ * content referenced by nodes and sweeps the data store for blobs that are not referenced anymore.
+ * <p>
+ * Only blobs left untouched for longer than the grace period are deleted, and storing a content that already exists
+ * touches its blob. An upload running during the collection therefore always keeps its blob, even when its node is
+ * created after the mark.
+ *
+ * @author Jerome Blanchard
+ */
+@Singleton
+public class BlobCollector {
+
+    private static final Logger LOGGER = Logger.getLogger(BlobCollector.class.getName());
+
+    @Inject CollectorConfig config;
+    @Inject UploadConfig uploads;
+    @Inject DataStore datastore;
+    @Inject EntityManager em;
+
+    @Scheduled(every = "${store.gc.every:6h}", delayed = "10m", concurrentExecution = Scheduled.ConcurrentExecution.SKIP)
+    void schedule() {
+        if ( config.enabled() ) {
+            try {
+                this.collect();
+            } catch (DataStoreException e) {
+                LOGGER.log(Level.WARNING, "Unable to collect unreferenced blobs", e);
+            }
+        }
+    }
+
+    /**
+     * @return the number of deleted blobs
+     */
+    public synchronized int collect() throws DataStoreException {
+        long before = System.currentTimeMillis() - config.grace().toMillis();
+        LOGGER.log(Level.INFO, "Starting blob collection");
+        Set<String> referenced = QuarkusTransaction.requiringNew().call(() ->
+                em.createNamedQuery("Node.findAllContents", String.class).getResultStream().collect(Collectors.toSet()));
+        int deleted = 0;
+        try (Stream<String> keys = datastore.keys()) {
+            Iterator<String> iterator = keys.filter(key -> !referenced.contains(key)).iterator();
+            while ( iterator.hasNext() && deleted < config.batch() ) {
+                String key = iterator.next();
+                if ( datastore.delete(key, before) ) {
+                    LOGGER.log(Level.FINE, "Deleted unreferenced blob: " + key);
+                    deleted++;
+                }
+            }
+        }
+        // staging areas of upload sessions must outlive the sessions, which may stay idle until they expire
+        int purged = datastore.purge(Math.min(before, System.currentTimeMillis() - uploads.expiration().toMillis()));
+        LOGGER.log(Level.INFO, "Blob collection done, " + deleted + " blobs deleted, " + purged + " chunks and staging files purged, " + referenced.size() + " blobs referenced");
+        return deleted;
+    }
+
+}
@@ -16,13 +16,16 @@
  */
 package fr.jayblanc.mbyte.store.files;
 
+import fr.jayblanc.mbyte.store.data.DataDescriptor;
 import fr.jayblanc.mbyte.store.data.exception.DataNotFoundException;
 import fr.jayblanc.mbyte.store.data.exception.DataStoreException;
 import fr.jayblanc.mbyte.store.files.entity.Node;
 import fr.jayblanc.mbyte.store.files.exceptions.*;
 import fr.jayblanc.mbyte.store.notification.NotificationServiceException;
 
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.List;
 
 public interface FileService {
@@ -30,21 +33,81 @@ public interface FileService {
     String ROOT_NODE_ID = "root";
     String TREE_NODE_MIMETYPE = "application/fs-folder";
 
+    enum Sort {
+        NAME,
+        SIZE,
+        MODIFICATION,
+        TYPE
+    }
+
     List<Node> list(String id) throws NodeNotFoundException;
 
+    /**
+     * Lists a page of the children of a node, sorted and paginated by the database. Pages are chained using keyset
+     * cursors: the cursor of the last node of a page gives the next page, which stays consistent when children are
+     * added or removed in between. An offset can be used instead of a cursor for direct access to a page.
+     *
+     * @param sort the sort key, ties are broken by node identifier (TYPE sorts by type then by name)
+     * @param descending true to reverse the order
+     * @param cursor the cursor of the last node of the previous page, or null for the first page
+     * @param offset the number of nodes to skip, ignored when a cursor is given
+     * @param limit the maximum number of nodes to return
+     * @throws IllegalArgumentException if the cursor is not valid for the sort key
+     */
+    List<Node> list(String id, Sort sort, boolean descending, String cursor, int offset, int limit) throws NodeNotFoundException;
+
+    /**
+     * Builds the cursor pointing after a node, for the given sort key.
+     */
+    String cursor(Node node, Sort sort);
+
+    long count(String id) throws NodeNotFoundException;
+
     List<Node> path(String id) throws NodeNotFoundException;
 
     Node get(String id) throws NodeNotFoundException;
 
-    InputStream getContent(String id) throws NodeNotFoundException, NodeTypeException, DataNotFoundException, DataStoreException;
+    Node findByContent(String content) throws NodeNotFoundException;
 
     String add(String parent, String name) throws NodeNotFoundException, NodeAlreadyExistsException, NodeTypeException,
             NodePersistenceException, NotificationServiceException;
 
+    /**
+     * Checks that a node can be created with the given name in the given parent, so that content is not transferred for
+     * nothing.
+     *
+     * @return the parent node
+     */
+    Node checkTarget(String parent, String name) throws NodeNotFoundException, NodeTypeException, NodeAlreadyExistsException;
+
+    /**
+     * Creates a BLOB node from a stream. The content is stored before any transaction is started so that a slow upload
+     * does not hold a database connection, only the node creation is transactional. A content left unreferenced when
+     * the node creation fails is reclaimed by the {@link BlobCollector}.
+     */
     String add(String parent, String name, InputStream content) throws NodeNotFoundException, NodeAlreadyExistsException, NodeTypeException, DataStoreException, DataNotFoundException, NodePersistenceException, NotificationServiceException;
 
+    /**
+     * Creates a BLOB node for a content that is already present in the data store.
+     */
+    String add(String parent, String name, DataDescriptor data) throws NodeNotFoundException, NodeAlreadyExistsException, NodeTypeException, DataNotFoundException, NodePersistenceException, NotificationServiceException;
+
+    /**
+     * Replaces the node with the given name by a BLOB node holding the content. The content is stored before the
+     * removal and the creation, which happen in a single transaction.
+     */
+    String replace(String parent, String name, InputStream content) throws NodeNotFoundException, NodeNotEmptyException, NodeAlreadyExistsException,
+            NodeTypeException, DataStoreException, DataNotFoundException, NodePersistenceException, NotificationServiceException;
+
     void remove(String parent, String name) throws NodeNotFoundException, NodeNotEmptyException, NodeTypeException, DataStoreException, NodePersistenceException, NotificationServiceException;
 
+    /**
+     * Writes a ZIP archive of a TREE node and all its descendants. Children are loaded page by page and contents are
+     * streamed from the data store, so neither the tree nor any content is held in memory. Nodes removed while the
+     * archive is written are skipped.
+     */
+    void archive(String id, OutputStream output) throws NodeNotFoundException, NodeTypeException, IOException;
+
     String getFullPath(List<Node> nodesPath);
 
     List<Node> findAll() throws NodeNotFoundException;
@@ -17,6 +17,7 @@
 package fr.jayblanc.mbyte.store.files;
 
 import fr.jayblanc.mbyte.store.auth.AuthenticationService;
+import fr.jayblanc.mbyte.store.data.DataDescriptor;
 import fr.jayblanc.mbyte.store.data.DataStore;
 import fr.jayblanc.mbyte.store.data.exception.DataNotFoundException;
 import fr.jayblanc.mbyte.store.data.exception.DataStoreException;
@@ -28,28 +29,48 @@ import fr.jayblanc.mbyte.store.metrics.GenerateMetric;
 import fr.jayblanc.mbyte.store.metrics.MetricsSource;
 import fr.jayblanc.mbyte.store.notification.NotificationService;
 import fr.jayblanc.mbyte.store.notification.NotificationServiceException;
+import io.quarkus.narayana.jta.QuarkusTransaction;
 import jakarta.annotation.PostConstruct;
 import jakarta.enterprise.context.ApplicationScoped;
 import jakarta.inject.Inject;
 import jakarta.persistence.EntityManager;
 import jakarta.persistence.LockModeType;
 import jakarta.persistence.PersistenceException;
+import jakarta.persistence.TypedQuery;
 import jakarta.transaction.Transactional;
+import org.hibernate.jpa.HibernateHints;
 
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.UUID;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
 
 @MetricsSource
 @ApplicationScoped
 public class FileServiceBean implements FileService, IndexableContentProvider {
 
     private static final Logger LOGGER = Logger.getLogger(FileServiceBean.class.getName());
+    private static final int ARCHIVE_PAGE_SIZE = 500;
+    private static final String ANCESTORS_SEPARATOR = "/";
+    /**
+     * Length taken by one level in the materialized path: a UUID followed by the separator.
+     */
+    private static final int ANCESTOR_LENGTH = 37;
     private static boolean initialized = false;
 
     @Inject DataStore datastore;
@@ -74,6 +95,7 @@ public class FileServiceBean implements FileService, IndexableContentProvider {
                 if ( bootstrap ) {
                     LOGGER.log(Level.INFO, "Root node does not exists, applying bootstrap");
                     Node root = new Node(Node.Type.TREE, "", ROOT_NODE_ID, "root");
+                    root.setAncestors(ROOT_NODE_ID + ANCESTORS_SEPARATOR);
                     em.persist(root);
                     LOGGER.log(Level.INFO, "Bootstrap done, root node exists now.");
                 }
@@ -93,19 +115,66 @@ public class FileServiceBean implements FileService, IndexableContentProvider {
     }
 
 
+    @Override
+    @Transactional(Transactional.TxType.REQUIRED)
+    public List<Node> list(String parent, Sort sort, boolean descending, String cursor, int offset, int limit) throws NodeNotFoundException {
+        LOGGER.log(Level.INFO, "Listing children page for parent: " + parent + " sorted by: " + sort + (descending ? " desc" : ""));
+        Node pnode = this.loadNode(parent);
+        String[] fields = sortFields(sort);
+        String direction = descending ? " DESC" : "";
+        Map<String, Object> params = new HashMap<>();
+        params.put("parent", pnode.getId());
+        StringBuilder jpql = new StringBuilder("SELECT n FROM Node n WHERE n.parent = :parent");
+        if (cursor != null) {
+            Object[] values = decodeCursor(cursor, sort);
+            jpql.append(" AND ").append(keyset(fields, values, 0, descending, params));
+        }
+        jpql.append(" ORDER BY ").append(String.join(direction + ", ", fields)).append(direction);
+        TypedQuery<Node> query = em.createQuery(jpql.toString(), Node.class).setHint(HibernateHints.HINT_CACHEABLE, true);
+        params.forEach(query::setParameter);
+        if (cursor == null) {
+            query.setFirstResult(offset);
+        }
+        return query.setMaxResults(limit).getResultList();
+    }
+
+    @Override
+    public String cursor(Node node, Sort sort) {
+        String values = switch (sort) {
+            case NAME -> node.getName();
+            case SIZE -> Long.toString(node.getSize());
+            case MODIFICATION -> Long.toString(node.getModification());
+            case TYPE -> node.getType().name() + "\n" + node.getName();
+        };
+        return Base64.getUrlEncoder().withoutPadding().encodeToString((node.getId() + "\n" + values).getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Override
+    @Transactional(Transactional.TxType.REQUIRED)
+    public long count(String parent) throws NodeNotFoundException {
+        Node pnode = this.loadNode(parent);
+        return em.createNamedQuery("Node.countChildren", Long.class).setParameter("parent", pnode.getId()).getSingleResult();
+    }
+
     @Override
     public List<Node> path(String id) throws NodeNotFoundException {
         LOGGER.log(Level.FINE, "Get path for node with id: " + id);
-        String pid = (id == null || id.isEmpty()) ? ROOT_NODE_ID:id;
+        Node node = loadNode(id);
+        if (node.getAncestors() == null) {
+            return this.walk(node);
+        }
+        List<String> ids = List.of(node.getAncestors().split(ANCESTORS_SEPARATOR));
+        Map<String, Node> ancestors = em.createNamedQuery("Node.findByIds", Node.class).setParameter("ids", ids).getResultStream()
+                .collect(Collectors.toMap(Node::getId, ancestor -> ancestor));
         List<Node> path = new ArrayList<>();
-        while (pid != null && !pid.isEmpty()) {
-            Node current = loadNode(pid);
-            path.add(current);
-            pid = current.getParent();
+        for (String aid : ids) {
+            Node ancestor = ancestors.get(aid);
+            if (ancestor == null) {
+                throw new NodeNotFoundException("unable to find a node with id: " + aid);
+            }
+            path.add(ancestor);
         }
-        Collections.reverse(path);
         LOGGER.log(Level.FINE, "path: " + path.stream().map(Node::getName).collect(Collectors.joining(" > ")));
-        //LOGGER.log(Level.INFO, "Full path String : " + this.getFullPath(path));
         return path;
     }
 
@@ -117,14 +186,20 @@ public class FileServiceBean implements FileService, IndexableContentProvider {
     public List<Node> findAll() throws NodeNotFoundException {
         List<Node> nodes = em.createNamedQuery("Node.findAll", Node.class).getResultList();
         LOGGER.log(Level.INFO,"Test recup nb nodes: " + nodes.size());
+        Map<String, Node> byId = nodes.stream().collect(Collectors.toMap(Node::getId, node -> node));
         for (Node node : nodes){
-             LOGGER.log(Level.INFO, "Full path du fichier: "+this.getFullPath(this.path(node.getId())));
+            if (node.getAncestors() == null) {
+                continue;
+            }
+            List<Node> path = Arrays.stream(node.getAncestors().split(ANCESTORS_SEPARATOR)).map(byId::get).filter(Objects::nonNull).toList();
+            LOGGER.log(Level.INFO, "Full path du fichier: "+this.getFullPath(path));
         }
         return nodes;
     }
 
 
     @Override
+    @Transactional(Transactional.TxType.REQUIRED)
     public Node get(String id) throws NodeNotFoundException {
         LOGGER.log(Level.INFO, "Getting node with id: " + id);
         return this.loadNode(id);
@@ -132,14 +207,14 @@ public class FileServiceBean implements FileService, IndexableContentProvider {
 
 
     @Override
-    @GenerateMetric(key = "download", type = GenerateMetric.Type.INCREMENT)
-    public InputStream getContent(String id) throws NodeNotFoundException, NodeTypeException, DataNotFoundException, DataStoreException {
-        LOGGER.log(Level.INFO, "Getting content for node with id: " + id);
-        Node node = this.loadNode(id);
-        if (!node.getType().equals(Node.Type.BLOB)) {
-            throw new NodeTypeException("only node of type BLOB have content");
+    @Transactional(Transactional.TxType.REQUIRED)
+    public Node findByContent(String content) throws NodeNotFoundException {
+        LOGGER.log(Level.INFO, "Finding node with content: " + content);
+        List<Node> nodes = em.createNamedQuery("Node.findByContent", Node.class).setParameter("content", content).setMaxResults(1).getResultList();
+        if (nodes.isEmpty()) {
+            throw new NodeNotFoundException("unable to find a node with content: " + content);
         }
-        return datastore.get(node.getContent());
+        return nodes.get(0);
     }
 
     @Override
@@ -147,15 +222,9 @@ public class FileServiceBean implements FileService, IndexableContentProvider {
     public String add(String parent, String name) throws NodeNotFoundException, NodeAlreadyExistsException, NodeTypeException,
             NodePersistenceException, NotificationServiceException {
         LOGGER.log(Level.INFO, "Adding TREE node with name: " + name + " for parent: " + parent);
-        Node pnode = this.loadNode(parent);
-        if (!pnode.isFolder()) {
-            throw new NodeTypeException("Parent must be a node of type TREE");
-        }
-        List<Node> nodes = em.createNamedQuery("Node.findChildrenForName", Node.class).setParameter("parent", pnode.getId()).setParameter("name", name).getResultList();
-        if (!nodes.isEmpty()) {
-            throw new NodeAlreadyExistsException("A node with name: " + name + " already exists in tree with id: " + pnode.getId());
-        }
+        Node pnode = this.checkTarget(parent, name);
         Node node = new Node(Node.Type.TREE, pnode.getId(), UUID.randomUUID().toString(), name);
+        node.setAncestors(this.ancestors(pnode) + node.getId() + ANCESTORS_SEPARATOR);
         node.setMimetype(TREE_NODE_MIMETYPE);
         em.persist(node);
         pnode.setSize(pnode.getSize()+1);
@@ -166,29 +235,23 @@ public class FileServiceBean implements FileService, IndexableContentProvider {
     }
 
     @Override
-    @GenerateMetric(key = "upload", type = GenerateMetric.Type.INCREMENT)
-    @Transactional(Transactional.TxType.REQUIRED)
     public String add(String parent, String name, InputStream content) throws NodeNotFoundException, NodeAlreadyExistsException, NodeTypeException, DataStoreException, DataNotFoundException, NodePersistenceException, NotificationServiceException {
         LOGGER.log(Level.INFO, "Adding BLOB node with name: " + name + " to parent: " + parent);
-        Node pnode = this.loadNode(parent);
-        if (!pnode.isFolder()) {
-            throw new NodeTypeException("Parent must be a node of type TREE");
-        }
-        List<Node> nodes = em.createNamedQuery("Node.findChildrenForName", Node.class).setParameter("parent", pnode.getId()).setParameter("name", name).getResultList();
-        if (!nodes.isEmpty()) {
-            throw new NodeAlreadyExistsException("A node with name: " + name + " already exists in tree with id: " + pnode.getId());
+        this.checkTarget(parent, name);
+        DataDescriptor data = datastore.put(content, name);
+        return this.add(parent, name, data);
+    }
+
+    @Override
+    @GenerateMetric(key = "upload", type = GenerateMetric.Type.INCREMENT)
+    @Transactional(Transactional.TxType.REQUIRED)
+    public String add(String parent, String name, DataDescriptor data) throws NodeNotFoundException, NodeAlreadyExistsException, NodeTypeException, DataNotFoundException, NodePersistenceException, NotificationServiceException {
+        LOGGER.log(Level.INFO, "Adding BLOB node with name: " + name + " to parent: " + parent + " for content: " + data.getKey());
+        Node pnode = this.checkTarget(parent, name);
+        if (!datastore.exists(data.getKey())) {
+            throw new DataNotFoundException("content not found in storage for key: " + data.getKey());
         }
-        String cid = datastore.put(content);
-        Node node = new Node(Node.Type.BLOB, pnode.getId(), UUID.randomUUID().toString(), name);
-        node.setContent(cid);
-        node.setSize(datastore.size(cid));
-        node.setMimetype(datastore.type(cid, name));
-        em.persist(node);
-        pnode.setSize(pnode.getSize()+1);
-        pnode.setModification(node.getModification());
-        notification.notify("file.create", node.getId());
-        notification.notify("folder.update", pnode.getId());
-        return node.getId();
+        return this.createBlob(pnode, name, data);
     }
 
     @Override
@@ -207,11 +270,8 @@ public class FileServiceBean implements FileService, IndexableContentProvider {
         if (children > 0) {
             throw new NodeNotEmptyException("The node with name: " + name + " is not empty");
         }
-        String eventType = "folder.remove";
-        if (!node.isFolder()) {
-            datastore.delete(node.getContent());
-            eventType = "file.remove";
-        }
+        // Blob content may be shared with other nodes, it is left to the BlobCollector once no node references it.
+        String eventType = node.isFolder() ? "folder.remove" : "file.remove";
         em.remove(node);
         pnode.setSize(pnode.getSize()-1);
         pnode.setModification(System.currentTimeMillis());
@@ -219,8 +279,215 @@ public class FileServiceBean implements FileService, IndexableContentProvider {
         notification.notify("folder.update", pnode.getId());
     }
 
+    @Override
+    public String replace(String parent, String name, InputStream content) throws NodeNotFoundException, NodeNotEmptyException, NodeAlreadyExistsException,
+            NodeTypeException, DataStoreException, DataNotFoundException, NodePersistenceException, NotificationServiceException {
+        LOGGER.log(Level.INFO, "Replacing node with name: " + name + " in parent: " + parent);
+        this.checkReplace(parent, name);
+        DataDescriptor data = datastore.put(content, name);
+        return this.replace(parent, name, data);
+    }
+
+    /**
+     * Removes the node and creates the new one in a single transaction, rolled back on any failure so that the previous
+     * node is kept.
+     */
+    @Transactional(value = Transactional.TxType.REQUIRED, rollbackOn = Exception.class)
+    String replace(String parent, String name, DataDescriptor data) throws NodeNotFoundException, NodeNotEmptyException, NodeAlreadyExistsException,
+            NodeTypeException, DataStoreException, DataNotFoundException, NodePersistenceException, NotificationServiceException {
+        this.remove(parent, name);
+        return this.add(parent, name, data);
+    }
+
+    @Override
+    @Transactional(Transactional.TxType.REQUIRED)
+    public Node checkTarget(String parent, String name) throws NodeNotFoundException, NodeTypeException, NodeAlreadyExistsException {
+        Node pnode = this.loadNode(parent);
+        if (!pnode.isFolder()) {
+            throw new NodeTypeException("Parent must be a node of type TREE");
+        }
+        List<Node> nodes = em.createNamedQuery("Node.findChildrenForName", Node.class).setParameter("parent", pnode.getId()).setParameter("name", name).getResultList();
+        if (!nodes.isEmpty()) {
+            throw new NodeAlreadyExistsException("A node with name: " + name + " already exists in tree with id: " + pnode.getId());
+        }
+        if (this.ancestors(pnode).length() + ANCESTOR_LENGTH > Node.ANCESTORS_LENGTH) {
+            throw new NodeTypeException("Parent is too deep to hold children, depth is limited to " + Node.ANCESTORS_LENGTH / ANCESTOR_LENGTH + " levels");
+        }
+        return pnode;
+    }
+
+    /**
+     * Checks that the node with the given name in the given parent exists and is a BLOB, in a short transaction of its
+     * own when called outside any, so that content is not transferred for nothing.
+     */
+    @Transactional(Transactional.TxType.REQUIRED)
+    Node checkReplace(String parent, String name) throws NodeNotFoundException, NodeTypeException {
+        Node pnode = this.loadNode(parent);
+        if (!pnode.isFolder()) {
+            throw new NodeTypeException("Parent must be a node of type TREE");
+        }
+        List<Node> nodes = em.createNamedQuery("Node.findChildrenForName", Node.class).setParameter("parent", pnode.getId()).setParameter("name", name).getResultList();
+        if (nodes.isEmpty()) {
+            throw new NodeNotFoundException("A node with name: " + name + " does not exists in tree with id: " + pnode.getId());
+        }
+        if (nodes.get(0).isFolder()) {
+            throw new NodeTypeException("Only node of type BLOB can be replaced");
+        }
+        return nodes.get(0);
+    }
+
     //INTERNAL OPERATIONS
 
+    /**
+     * Gives the materialized path of a node, rebuilding it from the parent links when it has not been set.
+     */
+    private String ancestors(Node node) throws NodeNotFoundException {
+        if (node.getAncestors() != null) {
+            return node.getAncestors();
+        }
+        return this.walk(node).stream().map(ancestor -> ancestor.getId() + ANCESTORS_SEPARATOR).collect(Collectors.joining());
+    }
+
+    /**
+     * Loads the path of a node by following its parent links, one query per level.
+     */
+    private List<Node> walk(Node node) throws NodeNotFoundException {
+        List<Node> path = new ArrayList<>();
+        path.add(node);
+        while (node.getParent() != null && !node.getParent().isEmpty()) {
+            node = this.loadNode(node.getParent());
+            path.add(node);
+        }
+        Collections.reverse(path);
+        return path;
+    }
+
+    private String createBlob(Node pnode, String name, DataDescriptor data) throws NodeNotFoundException, NotificationServiceException {
+        Node node = new Node(Node.Type.BLOB, pnode.getId(), UUID.randomUUID().toString(), name);
+        node.setAncestors(this.ancestors(pnode) + node.getId() + ANCESTORS_SEPARATOR);
+        node.setContent(data.getKey());
+        node.setSize(data.getSize());
+        node.setMimetype(data.getType());
+        em.persist(node);
+        pnode.setSize(pnode.getSize()+1);
+        pnode.setModification(node.getModification());
+        notification.notify("file.create", node.getId());
+        notification.notify("folder.update", pnode.getId());
+        return node.getId();
+    }
+
+    @Override
+    public void archive(String id, OutputStream output) throws NodeNotFoundException, NodeTypeException, IOException {
+        LOGGER.log(Level.INFO, "Archiving subtree of node with id: " + id);
+        String pid = (id == null || id.isEmpty()) ? ROOT_NODE_ID:id;
+        Node node = QuarkusTransaction.requiringNew().call(() -> em.find(Node.class, pid));
+        if (node == null) {
+            throw new NodeNotFoundException("unable to find a node with id: " + pid);
+        }
+        if (!node.getType().equals(Node.Type.TREE)) {
+            throw new NodeTypeException("only node of type TREE can be archived");
+        }
+        ZipOutputStream zip = new ZipOutputStream(output);
+        this.archive(node, "", zip);
+        zip.finish();
+        zip.flush();
+    }
+
+    private void archive(Node folder, String path, ZipOutputStream zip) throws IOException {
+        String after = "";
+        List<Node> children;
+        do {
+            String from = after;
+            children = QuarkusTransaction.requiringNew().call(() -> em.createNamedQuery("Node.findChildrenAfter", Node.class)
+                    .setParameter("parent", folder.getId()).setParameter("after", from).setMaxResults(ARCHIVE_PAGE_SIZE).getResultList());
+            for (Node child : children) {
+                String name = path + archiveName(child.getName());
+                if (child.getType().equals(Node.Type.TREE)) {
+                    ZipEntry entry = new ZipEntry(name + "/");
+                    entry.setTime(child.getModification());
+                    zip.putNextEntry(entry);
+                    zip.closeEntry();
+                    this.archive(child, name + "/", zip);
+                } else {
+                    try (InputStream content = datastore.get(child.getContent())) {
+                        ZipEntry entry = new ZipEntry(name);
+                        entry.setTime(child.getModification());
+                        zip.setLevel(isCompressed(child.getMimetype()) ? Deflater.NO_COMPRESSION : Deflater.DEFAULT_COMPRESSION);
+                        zip.putNextEntry(entry);
+                        content.transferTo(zip);
+                        zip.closeEntry();
+                    } catch (DataNotFoundException | DataStoreException e) {
+                        LOGGER.log(Level.WARNING, "Skipping node " + child.getId() + " in archive, content unavailable: " + e.getMessage());
+                    }
+                }
+            }
+            if (!children.isEmpty()) {
+                after = children.get(children.size() - 1).getId();
+            }
+        } while (children.size() == ARCHIVE_PAGE_SIZE);
+    }
+
+    static String archiveName(String name) {
+        String sanitized = name.replaceAll("[/\\\\\\p{Cntrl}]", "_");
+        return (sanitized.equals(".") || sanitized.equals("..")) ? "_" : sanitized;
+    }
+
+    private static boolean isCompressed(String mimetype) {
+        return mimetype != null && ((mimetype.startsWith("image/") && !mimetype.contains("svg")) || mimetype.startsWith("video/") || mimetype.startsWith("audio/")
+                || mimetype.contains("zip") || mimetype.contains("compressed"));
+    }
+
+    static String[] sortFields(Sort sort) {
+        return switch (sort) {
+            case NAME -> new String[] {"n.name", "n.id"};
+            case SIZE -> new String[] {"n.size", "n.id"};
+            case MODIFICATION -> new String[] {"n.modification", "n.id"};
+            case TYPE -> new String[] {"n.type", "n.name", "n.id"};
+        };
+    }
+
+    /**
+     * Decodes a cursor into the values of the sort fields, in the order of {@link #sortFields(Sort)}.
+     */
+    static Object[] decodeCursor(String cursor, Sort sort) {
+        String[] parts = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8).split("\n", sort == Sort.TYPE ? 3 : 2);
+        if (parts.length != (sort == Sort.TYPE ? 3 : 2)) {
+            throw new IllegalArgumentException("invalid cursor for sort: " + sort);
+        }
+        return switch (sort) {
+            case NAME -> new Object[] {parts[1], parts[0]};
+            case SIZE, MODIFICATION -> new Object[] {Long.parseLong(parts[1]), parts[0]};
+            case TYPE -> new Object[] {Node.Type.valueOf(parts[1]), parts[2], parts[0]};
+        };
+    }
+
+    /**
+     * Builds the condition selecting the rows strictly after the cursor values, in the sort order, so that the database
+     * can seek directly in the matching (parent, sort fields...) index. Node types are compared through the list of the
+     * types that follow, the way they are ordered by the database.
+     */
+    static String keyset(String[] fields, Object[] values, int index, boolean descending, Map<String, Object> params) {
+        String param = "k" + index;
+        params.put(param, values[index]);
+        String after;
+        if (values[index] instanceof Node.Type type) {
+            List<Node.Type> next = Arrays.stream(Node.Type.values())
+                    .filter(other -> descending ? other.name().compareTo(type.name()) < 0 : other.name().compareTo(type.name()) > 0).toList();
+            after = null;
+            if (!next.isEmpty()) {
+                params.put(param + "n", next);
+                after = fields[index] + " IN :" + param + "n";
+            }
+        } else {
+            after = fields[index] + (descending ? " < :" : " > :") + param;
+        }
+        if (index == fields.length - 1) {
+            return after;
+        }
+        String tie = fields[index] + " = :" + param + " AND " + keyset(fields, values, index + 1, descending, params);
+        return (after == null) ? "(" + tie + ")" : "(" + after + " OR (" + tie + "))";
+    }
+
     private Node loadNode(String id) throws NodeNotFoundException {
         return systemLoadNode(id);
     }
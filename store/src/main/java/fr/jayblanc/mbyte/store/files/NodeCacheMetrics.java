@@ -0,0 +1,54 @@
+/*
+ * Copyright (C) 2025 Jerome Blanchard <jayblanc@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package fr.jayblanc.mbyte.store.files;
+
+import fr.jayblanc.mbyte.store.metrics.MetricsService;
+import io.quarkus.scheduler.Scheduled;
+import jakarta.inject.Inject;
+import jakarta.inject.Singleton;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+
+/**
+ * Publishes the hit and miss counts of the Hibernate second level cache, holding Node entities, and of the query
+ * cache, holding children listings, together with their hit ratio in percent.
+ * <p>
+ * Both caches are kept consistent by Hibernate itself: entries are updated or invalidated when the transaction that
+ * modifies nodes commits, before the notification events of that transaction are published.
+ *
+ * @author Jerome Blanchard
+ */
+@Singleton
+public class NodeCacheMetrics {
+
+    @Inject SessionFactory sessionFactory;
+    @Inject MetricsService metrics;
+
+    @Scheduled(every = "1m", delayed = "1m")
+    void publish() {
+        Statistics statistics = sessionFactory.getStatistics();
+        this.publish("node.cache", statistics.getSecondLevelCacheHitCount(), statistics.getSecondLevelCacheMissCount());
+        this.publish("node.query.cache", statistics.getQueryCacheHitCount(), statistics.getQueryCacheMissCount());
+    }
+
+    private void publish(String key, long hits, long misses) {
+        metrics.setMetric(key + ".hit", hits);
+        metrics.setMetric(key + ".miss", misses);
+        metrics.setMetric(key + ".ratio", (hits + misses == 0) ? 0 : hits * 100 / (hits + misses));
+    }
+
+}
@@ -18,24 +18,37 @@ package fr.jayblanc.mbyte.store.files.entity;
 
 import fr.jayblanc.mbyte.store.files.FileService;
 import jakarta.persistence.*;
+import org.hibernate.jpa.HibernateHints;
 
 import java.io.Serializable;
 import java.util.Comparator;
 import java.util.Objects;
 
 @Entity
+@Cacheable
 @NamedQueries({
-        @NamedQuery(name = "Node.findAllChildren", query = "SELECT n FROM Node n WHERE n.parent = :parent"),
+        @NamedQuery(name = "Node.findAllChildren", query = "SELECT n FROM Node n WHERE n.parent = :parent", hints = @QueryHint(name = HibernateHints.HINT_CACHEABLE, value = "true")),
+        @NamedQuery(name = "Node.findChildrenAfter", query = "SELECT n FROM Node n WHERE n.parent = :parent AND n.id > :after ORDER BY n.id"),
         @NamedQuery(name = "Node.findAll", query = "SELECT n FROM Node n"),
-        @NamedQuery(name = "Node.findChildrenForName", query = "SELECT n FROM Node n WHERE n.parent = :parent AND n.name = :name"),
-        @NamedQuery(name = "Node.countChildren", query = "SELECT count(n) FROM Node n WHERE n.parent = :parent"),
+        @NamedQuery(name = "Node.findChildrenForName", query = "SELECT n FROM Node n WHERE n.parent = :parent AND n.name = :name", hints = @QueryHint(name = HibernateHints.HINT_CACHEABLE, value = "true")),
+        @NamedQuery(name = "Node.countChildren", query = "SELECT count(n) FROM Node n WHERE n.parent = :parent", hints = @QueryHint(name = HibernateHints.HINT_CACHEABLE, value = "true")),
+        @NamedQuery(name = "Node.findByContent", query = "SELECT n FROM Node n WHERE n.content = :content"),
+        @NamedQuery(name = "Node.findAllContents", query = "SELECT DISTINCT n.content FROM Node n WHERE n.content IS NOT NULL"),
+        @NamedQuery(name = "Node.findByIds", query = "SELECT n FROM Node n WHERE n.id IN :ids", hints = @QueryHint(name = HibernateHints.HINT_CACHEABLE, value = "true")),
 })
 @Table(indexes = {
         @Index(name = "parent", columnList = "parent"),
         @Index(name = "parent_name", columnList = "parent, name"),
+        @Index(name = "node_content", columnList = "content"),
+        @Index(name = "node_parent_name", columnList = "parent, name, id"),
+        @Index(name = "node_parent_size", columnList = "parent, size, id"),
+        @Index(name = "node_parent_modification", columnList = "parent, modification, id"),
+        @Index(name = "node_parent_type", columnList = "parent, type, name, id"),
 })
 public class Node implements Comparable<Node>, Serializable {
 
+    public static final int ANCESTORS_LENGTH = 4000;
+
     @Enumerated(EnumType.STRING)
     private Type type;
     @Id
@@ -52,6 +65,13 @@ public class Node implements Comparable<Node>, Serializable {
     private long creation;
     private long modification;
     private String content;
+    /**
+     * Materialized path of the node: the identifiers of the root, of every ancestor and of the node itself, each one
+     * followed by a slash. It is only read with its node, to resolve the path in one query, and is not indexed. Its
+     * length bounds the depth of the tree to about a hundred levels.
+     */
+    @Column(length = ANCESTORS_LENGTH)
+    private String ancestors;
 
     public Node() {
         this.creation = this.modification = System.currentTimeMillis();
@@ -114,6 +134,14 @@ public class Node implements Comparable<Node>, Serializable {
         this.content = content;
     }
 
+    public String getAncestors() {
+        return ancestors;
+    }
+
+    public void setAncestors(String ancestors) {
+        this.ancestors = ancestors;
+    }
+
     public String getMimetype() {
         return mimetype;
     }
@@ -32,4 +32,9 @@ public interface MetricsService {
 
     void decMetric(String key);
 
+    /**
+     * Sets the value of a metric measured elsewhere, such as a gauge or a counter maintained by a library.
+     */
+    void setMetric(String key, long value);
+
 }
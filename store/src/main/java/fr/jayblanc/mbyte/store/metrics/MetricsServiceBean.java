@@ -78,6 +78,13 @@ public class MetricsServiceBean implements MetricsService {
         latestMetrics.put(key, Math.min(latestMetrics.getOrDefault(key, 0L) - 1, 0L));
     }
 
+    @Override
+    @Lock
+    public void setMetric(String key, long value) {
+        LOGGER.log(Level.FINE, "set metric for key: " + key);
+        metrics.put(key, value);
+    }
+
     @Scheduled(every="5m")
     public void razLatestMetrics() {
         LOGGER.log(Level.INFO, "reset latest metrics");
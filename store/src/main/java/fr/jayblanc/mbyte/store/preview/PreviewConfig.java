@@ -0,0 +1,56 @@
+/*
+ * Copyright (C) 2025 Jerome Blanchard <jayblanc@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package fr.jayblanc.mbyte.store.preview;
+
+import io.smallrye.config.ConfigMapping;
+import io.smallrye.config.WithDefault;
+
+/**
+ * @author Jerome Blanchard
+ */
+@ConfigMapping(prefix = "store.preview")
+public interface PreviewConfig {
+
+    String home();
+
+    @WithDefault("true")
+    boolean enabled();
+
+    /**
+     * Largest side of a preview in pixels.
+     */
+    @WithDefault("256")
+    int size();
+
+    /**
+     * JPEG quality of previews, between 0 and 1.
+     */
+    @WithDefault("0.8")
+    float quality();
+
+    /**
+     * Images with more pixels than this limit get no preview, protecting the decoder against oversized images.
+     */
+    @WithDefault("100000000")
+    long pixels();
+
+    /**
+     * Number of pending generations above which new ones are dropped, they are generated on first request instead.
+     */
+    @WithDefault("100")
+    int queue();
+}
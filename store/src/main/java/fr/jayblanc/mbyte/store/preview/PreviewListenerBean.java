@@ -0,0 +1,42 @@
+/*
+ * Copyright (C) 2025 Jerome Blanchard <jayblanc@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package fr.jayblanc.mbyte.store.preview;
+
+import fr.jayblanc.mbyte.store.notification.NotificationService;
+import fr.jayblanc.mbyte.store.notification.entity.Event;
+import io.quarkus.vertx.ConsumeEvent;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+@ApplicationScoped
+public class PreviewListenerBean {
+
+    private static final Logger LOGGER = Logger.getLogger(PreviewListenerBean.class.getName());
+
+    @Inject PreviewService previews;
+
+    @ConsumeEvent(NotificationService.NOTIFICATION_TOPIC)
+    public void onMessage(Event event) {
+        if ( "file.create".equals(event.getEventType()) ) {
+            LOGGER.log(Level.FINE, "Preview listener event received");
+            previews.submit(event.getSourceId());
+        }
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright (C) 2025 Jerome Blanchard <jayblanc@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package fr.jayblanc.mbyte.store.preview;
+
+import fr.jayblanc.mbyte.store.data.exception.DataNotFoundException;
+import fr.jayblanc.mbyte.store.data.exception.DataStoreException;
+
+import java.nio.file.Path;
+
+/**
+ * Small previews of file contents, generated once per content key.
+ *
+ * @author Jerome Blanchard
+ */
+public interface PreviewService {
+
+    String PREVIEW_MIMETYPE = "image/jpeg";
+
+    /**
+     * @return true if previews are enabled and can be generated for contents of that mime type
+     */
+    boolean supports(String type);
+
+    /**
+     * Generates the preview of a node in the background, if its type is supported.
+     *
+     * @param id the node identifier
+     */
+    void submit(String id);
+
+    /**
+     * Gives the preview of a content, generating it if needed.
+     *
+     * @param key the content key
+     * @param type the content mime type
+     * @return the preview file or null if no preview can be made for that content
+     */
+    Path preview(String key, String type) throws DataStoreException, DataNotFoundException;
+
+}
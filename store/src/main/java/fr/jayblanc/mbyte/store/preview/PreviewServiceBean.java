@@ -0,0 +1,261 @@
+/*
+ * Copyright (C) 2025 Jerome Blanchard <jayblanc@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package fr.jayblanc.mbyte.store.preview;
+
+import fr.jayblanc.mbyte.store.data.DataStore;
+import fr.jayblanc.mbyte.store.data.DataStoreLayout;
+import fr.jayblanc.mbyte.store.data.exception.DataNotFoundException;
+import fr.jayblanc.mbyte.store.data.exception.DataStoreException;
+import fr.jayblanc.mbyte.store.data.hash.HashAlgorithm;
+import fr.jayblanc.mbyte.store.files.FileService;
+import fr.jayblanc.mbyte.store.files.entity.Node;
+import fr.jayblanc.mbyte.store.metrics.MetricsService;
+import io.quarkus.narayana.jta.QuarkusTransaction;
+import io.quarkus.scheduler.Scheduled;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.inject.Inject;
+import jakarta.inject.Singleton;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+/**
+ * Previews are JPEG images scaled down from contents that the image decoders of the JVM can read. They are stored once
+ * per content key, in sub folders fanned out like the data store, so nodes sharing a content share their preview.
+ * <p>
+ * Previews of created files are generated in the background by a single low priority thread, and on first request
+ * for contents stored before. Images are decoded with subsampling so that large pictures never need their full
+ * resolution in memory. Previews of contents that are no longer stored are purged periodically.
+ *
+ * @author Jerome Blanchard
+ */
+@Singleton
+public class PreviewServiceBean implements PreviewService {
+
+    private static final Logger LOGGER = Logger.getLogger(PreviewService.class.getName());
+    private static final String PREVIEW_EXTENSION = ".jpg";
+    private static final String TEMP_PREFIX = "tmp-";
+
+    @Inject PreviewConfig config;
+    @Inject DataStore datastore;
+    @Inject FileService files;
+    @Inject MetricsService metrics;
+
+    private Path base;
+    private ThreadPoolExecutor executor;
+
+    @PostConstruct
+    public void init() {
+        this.base = Paths.get(config.home());
+        try {
+            Files.createDirectories(base);
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "unable to initialize preview folder", e);
+        }
+        this.executor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(config.queue()), runnable -> {
+            Thread thread = new Thread(runnable, "preview-generator");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        }, new ThreadPoolExecutor.DiscardPolicy());
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    @Override
+    public boolean supports(String type) {
+        return config.enabled() && type != null && ImageIO.getImageReadersByMIMEType(type).hasNext();
+    }
+
+    @Override
+    public void submit(String id) {
+        if ( !config.enabled() ) {
+            return;
+        }
+        executor.execute(() -> {
+            try {
+                Node node = QuarkusTransaction.requiringNew().call(() -> files.get(id));
+                if ( node.getType() == Node.Type.BLOB ) {
+                    this.preview(node.getContent(), node.getMimetype());
+                }
+            } catch (Exception e) {
+                LOGGER.log(Level.WARNING, "Unable to generate preview for node: " + id, e);
+            }
+        });
+    }
+
+    @Override
+    public Path preview(String key, String type) throws DataStoreException, DataNotFoundException {
+        if ( !DataStoreLayout.isKey(key) || !this.supports(type) ) {
+            return null;
+        }
+        Path file = this.file(key);
+        if ( Files.exists(file) ) {
+            metrics.incMetric("preview.hit");
+            return file;
+        }
+        Path blob = datastore.file(key);
+        Path tmpfile = base.resolve(TEMP_PREFIX + UUID.randomUUID());
+        try (InputStream is = (blob == null) ? datastore.get(key) : null;
+             ImageInputStream iis = ImageIO.createImageInputStream((blob == null) ? is : blob.toFile())) {
+            BufferedImage image = this.read(iis, type);
+            if ( image == null ) {
+                return null;
+            }
+            this.write(this.scale(image), tmpfile);
+            Files.createDirectories(file.getParent());
+            Files.move(tmpfile, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            metrics.incMetric("preview.generated");
+            return file;
+        } catch (IOException | RuntimeException e) {
+            LOGGER.log(Level.WARNING, "Unable to generate preview for key: " + key, e);
+            metrics.incMetric("preview.failed");
+            return null;
+        } finally {
+            try {
+                Files.deleteIfExists(tmpfile);
+            } catch (IOException e) {
+                LOGGER.log(Level.FINE, "Unable to delete temporary preview file: " + tmpfile, e);
+            }
+        }
+    }
+
+    @Scheduled(every = "${store.gc.every:6h}", delayed = "30m", concurrentExecution = Scheduled.ConcurrentExecution.SKIP)
+    void purge() {
+        int removed = 0;
+        long before = System.currentTimeMillis() - TimeUnit.HOURS.toMillis(1);
+        try (Stream<Path> previews = Files.walk(base)) {
+            for (Path preview : (Iterable<Path>) previews.filter(Files::isRegularFile)::iterator) {
+                String name = preview.getFileName().toString();
+                if ( name.startsWith(TEMP_PREFIX) ) {
+                    if ( Files.getLastModifiedTime(preview).toMillis() < before && Files.deleteIfExists(preview) ) {
+                        removed++;
+                    }
+                    continue;
+                }
+                String key = this.key(name);
+                if ( key == null || !preview.equals(this.file(key)) || !datastore.exists(key) ) {
+                    Files.deleteIfExists(preview);
+                    removed++;
+                }
+            }
+        } catch (IOException | UncheckedIOException e) {
+            LOGGER.log(Level.WARNING, "Unable to purge previews", e);
+        }
+        LOGGER.log(Level.INFO, "Preview purge done, " + removed + " previews removed");
+    }
+
+    /**
+     * Decodes an image at the lowest resolution that still gives a sharp preview.
+     *
+     * @return the decoded image or null if the image is too large
+     */
+    private BufferedImage read(ImageInputStream iis, String type) throws IOException {
+        Iterator<ImageReader> readers = ImageIO.getImageReadersByMIMEType(type);
+        ImageReader reader = readers.next();
+        try {
+            reader.setInput(iis, true, true);
+            int width = reader.getWidth(0);
+            int height = reader.getHeight(0);
+            if ( (long) width * height > config.pixels() ) {
+                LOGGER.log(Level.FINE, "Image too large for a preview: " + width + "x" + height);
+                return null;
+            }
+            ImageReadParam param = reader.getDefaultReadParam();
+            int step = Math.max(1, Math.max(width, height) / (config.size() * 2));
+            param.setSourceSubsampling(step, step, 0, 0);
+            return reader.read(0, param);
+        } finally {
+            reader.dispose();
+        }
+    }
+
+    private BufferedImage scale(BufferedImage image) {
+        double ratio = Math.min(1.0, (double) config.size() / Math.max(image.getWidth(), image.getHeight()));
+        int width = Math.max(1, (int) Math.round(image.getWidth() * ratio));
+        int height = Math.max(1, (int) Math.round(image.getHeight() * ratio));
+        BufferedImage preview = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = preview.createGraphics();
+        try {
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            graphics.setColor(Color.WHITE);
+            graphics.fillRect(0, 0, width, height);
+            graphics.drawImage(image, 0, 0, width, height, null);
+        } finally {
+            graphics.dispose();
+        }
+        return preview;
+    }
+
+    private void write(BufferedImage image, Path target) throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByMIMEType(PREVIEW_MIMETYPE).next();
+        try (ImageOutputStream ios = ImageIO.createImageOutputStream(target.toFile())) {
+            writer.setOutput(ios);
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(config.quality());
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+    }
+
+    private Path file(String key) {
+        String hash = HashAlgorithm.hash(key);
+        return base.resolve(hash.substring(0, 2)).resolve(hash.substring(2, 4)).resolve(key + "-" + config.size() + PREVIEW_EXTENSION);
+    }
+
+    private String key(String name) {
+        int index = name.lastIndexOf('-');
+        if ( index <= 0 ) {
+            return null;
+        }
+        String key = name.substring(0, index);
+        return DataStoreLayout.isKey(key) ? key : null;
+    }
+
+}
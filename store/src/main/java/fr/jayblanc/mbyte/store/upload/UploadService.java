@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) 2025 Jerome Blanchard <jayblanc@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package fr.jayblanc.mbyte.store.upload;
+
+import fr.jayblanc.mbyte.store.data.exception.DataNotFoundException;
+import fr.jayblanc.mbyte.store.data.exception.DataStoreException;
+import fr.jayblanc.mbyte.store.files.exceptions.NodeAlreadyExistsException;
+import fr.jayblanc.mbyte.store.files.exceptions.NodeNotFoundException;
+import fr.jayblanc.mbyte.store.files.exceptions.NodePersistenceException;
+import fr.jayblanc.mbyte.store.files.exceptions.NodeTypeException;
+import fr.jayblanc.mbyte.store.notification.NotificationServiceException;
+import fr.jayblanc.mbyte.store.upload.entity.UploadSession;
+import fr.jayblanc.mbyte.store.upload.exceptions.UploadHashException;
+import fr.jayblanc.mbyte.store.upload.exceptions.UploadNotFoundException;
+import fr.jayblanc.mbyte.store.upload.exceptions.UploadOffsetException;
+
+import java.io.InputStream;
+
+/**
+ * Resumable uploads: a session is created for a target node, content is sent in chunks at explicit offsets and the
+ * session is finally completed, creating the node.
+ *
+ * @author Jerome Blanchard
+ */
+public interface UploadService {
+
+    /**
+     * Creates an upload session. When a hash is given and the content is already stored with the same size, the node
+     * is created right away and the returned session is already completed, holding the created node identifier.
+     * Otherwise the content is transferred and its key must match the given hash when the session is completed. A hash
+     * that is not a key of the configured algorithm is rejected, it could never match.
+     *
+     * @param size the declared size or -1 if unknown
+     * @param hash the content key as computed by the data store, may be null
+     */
+    UploadSession create(String parent, String name, long size, String hash) throws UploadHashException, DataStoreException, DataNotFoundException, NodeNotFoundException,
+            NodeAlreadyExistsException, NodeTypeException, NodePersistenceException, NotificationServiceException;
+
+    UploadSession get(String id) throws UploadNotFoundException;
+
+    long append(String id, long offset, InputStream data) throws UploadNotFoundException, UploadOffsetException, DataStoreException, DataNotFoundException;
+
+    String complete(String id) throws UploadNotFoundException, UploadOffsetException, UploadHashException, DataStoreException, DataNotFoundException, NodeNotFoundException,
+            NodeAlreadyExistsException, NodeTypeException, NodePersistenceException, NotificationServiceException;
+
+    void cancel(String id) throws UploadNotFoundException, DataStoreException;
+
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright (C) 2025 Jerome Blanchard <jayblanc@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package fr.jayblanc.mbyte.store.upload;
+
+import fr.jayblanc.mbyte.store.data.DataDescriptor;
+import fr.jayblanc.mbyte.store.data.DataStore;
+import fr.jayblanc.mbyte.store.data.DataStoreConfig;
+import fr.jayblanc.mbyte.store.data.exception.DataNotFoundException;
+import fr.jayblanc.mbyte.store.data.exception.DataStoreException;
+import fr.jayblanc.mbyte.store.data.hash.HashAlgorithm;
+import fr.jayblanc.mbyte.store.files.FileService;
+import fr.jayblanc.mbyte.store.files.exceptions.NodeAlreadyExistsException;
+import fr.jayblanc.mbyte.store.files.exceptions.NodeNotFoundException;
+import fr.jayblanc.mbyte.store.files.exceptions.NodePersistenceException;
+import fr.jayblanc.mbyte.store.files.exceptions.NodeTypeException;
+import fr.jayblanc.mbyte.store.notification.NotificationServiceException;
+import fr.jayblanc.mbyte.store.upload.entity.UploadSession;
+import fr.jayblanc.mbyte.store.upload.exceptions.UploadHashException;
+import fr.jayblanc.mbyte.store.upload.exceptions.UploadNotFoundException;
+import fr.jayblanc.mbyte.store.upload.exceptions.UploadOffsetException;
+import io.quarkus.scheduler.Scheduled;
+import jakarta.inject.Inject;
+import jakarta.inject.Singleton;
+
+import java.io.InputStream;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Upload sessions are kept in memory and their content in a data store staging area, together with the running hash
+ * state, so completing a session neither reads nor copies the received data again. Sessions idle for longer than the
+ * configured expiration are discarded, and none of them survives a restart.
+ *
+ * @author Jerome Blanchard
+ */
+@Singleton
+public class UploadServiceBean implements UploadService {
+
+    private static final Logger LOGGER = Logger.getLogger(UploadService.class.getName());
+
+    @Inject UploadConfig config;
+    @Inject DataStoreConfig storeConfig;
+    @Inject DataStore datastore;
+    @Inject FileService files;
+
+    private final Map<String, UploadSession> sessions = new ConcurrentHashMap<>();
+
+    public UploadServiceBean() {
+    }
+
+    @Override
+    public UploadSession create(String parent, String name, long size, String hash) throws UploadHashException, DataStoreException, DataNotFoundException,
+            NodeNotFoundException, NodeAlreadyExistsException, NodeTypeException, NodePersistenceException, NotificationServiceException {
+        LOGGER.log(Level.INFO, "Creating upload session for name: " + name + " in parent: " + parent);
+        if (hash != null && HashAlgorithm.forKey(hash) != HashAlgorithm.forName(storeConfig.hash())) {
+            throw new UploadHashException("declared hash: " + hash + " is not a " + storeConfig.hash() + " content key");
+        }
+        files.checkTarget(parent, name);
+        UploadSession session = new UploadSession();
+        session.setId(UUID.randomUUID().toString());
+        session.setParent(parent);
+        session.setName(name);
+        session.setSize(size);
+        session.setHash(hash);
+        if ( hash != null && datastore.exists(hash) && (size < 0 || datastore.size(hash) == size) ) {
+            LOGGER.log(Level.INFO, "Content already stored for hash: " + hash + ", skipping transfer");
+            DataDescriptor data = datastore.reuse(hash, name);
+            session.setSize(data.getSize());
+            session.setOffset(data.getSize());
+            session.setNode(files.add(parent, name, data));
+            return session;
+        }
+        session.setStage(datastore.stage());
+        sessions.put(session.getId(), session);
+        return session;
+    }
+
+    @Override
+    public UploadSession get(String id) throws UploadNotFoundException {
+        UploadSession session = sessions.get(id);
+        if (session == null) {
+            throw new UploadNotFoundException("unable to find an upload session with id: " + id);
+        }
+        return session;
+    }
+
+    @Override
+    public long append(String id, long offset, InputStream data) throws UploadNotFoundException, UploadOffsetException, DataStoreException, DataNotFoundException {
+        LOGGER.log(Level.FINE, "Appending data to upload session: " + id + " at offset: " + offset);
+        UploadSession session = this.get(id);
+        synchronized (session) {
+            if (offset != session.getOffset()) {
+                throw new UploadOffsetException("upload session " + id + " expects offset: " + session.getOffset() + " but received: " + offset);
+            }
+            try {
+                datastore.append(session.getStage(), offset, data);
+            } finally {
+                session.setOffset(datastore.staged(session.getStage()));
+                session.setModification(System.currentTimeMillis());
+            }
+            if (session.getSize() >= 0 && session.getOffset() > session.getSize()) {
+                this.cancel(id);
+                throw new UploadOffsetException("upload session " + id + " received more than the declared size: " + session.getSize());
+            }
+            return session.getOffset();
+        }
+    }
+
+    @Override
+    public String complete(String id) throws UploadNotFoundException, UploadOffsetException, UploadHashException, DataStoreException, DataNotFoundException, NodeNotFoundException,
+            NodeAlreadyExistsException, NodeTypeException, NodePersistenceException, NotificationServiceException {
+        LOGGER.log(Level.INFO, "Completing upload session: " + id);
+        UploadSession session = this.get(id);
+        synchronized (session) {
+            if (!session.isComplete()) {
+                throw new UploadOffsetException("upload session " + id + " is incomplete, received: " + session.getOffset() + " of " + session.getSize());
+            }
+            if (session.getData() == null) {
+                DataDescriptor data = datastore.commit(session.getStage(), session.getName());
+                if (session.getHash() != null && !session.getHash().equals(data.getKey())) {
+                    sessions.remove(id);
+                    throw new UploadHashException("upload session " + id + " received content with key: " + data.getKey() + " but declared: " + session.getHash());
+                }
+                session.setData(data);
+            }
+            String node = files.add(session.getParent(), session.getName(), session.getData());
+            sessions.remove(id);
+            return node;
+        }
+    }
+
+    @Override
+    public void cancel(String id) throws UploadNotFoundException, DataStoreException {
+        LOGGER.log(Level.INFO, "Cancelling upload session: " + id);
+        UploadSession session = sessions.remove(id);
+        if (session == null) {
+            throw new UploadNotFoundException("unable to find an upload session with id: " + id);
+        }
+        datastore.discard(session.getStage());
+    }
+
+    @Scheduled(every = "1h")
+    public void purge() {
+        long limit = System.currentTimeMillis() - config.expiration().toMillis();
+        List<String> expired = sessions.values().stream().filter(session -> session.getModification() < limit).map(UploadSession::getId).toList();
+        for (String id : expired) {
+            LOGGER.log(Level.INFO, "Purging expired upload session: " + id);
+            try {
+                this.cancel(id);
+            } catch (UploadNotFoundException | DataStoreException e) {
+                LOGGER.log(Level.WARNING, "Unable to purge upload session: " + id, e);
+            }
+        }
+    }
+
+}
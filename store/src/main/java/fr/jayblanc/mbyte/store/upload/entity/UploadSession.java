@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2025 Jerome Blanchard <jayblanc@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package fr.jayblanc.mbyte.store.upload.entity;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import fr.jayblanc.mbyte.store.data.DataDescriptor;
+
+/**
+ * State of a resumable upload: the target node (parent and name), the declared size if any and the number of bytes
+ * already received. When the content was already known by its hash, the session is born completed and only holds the
+ * created node. Sessions live in memory only and do not survive a restart.
+ *
+ * @author Jerome Blanchard
+ */
+public class UploadSession {
+
+    private String id;
+    private String parent;
+    private String name;
+    private long size;
+    private String hash;
+    private long offset;
+    private long creation;
+    private long modification;
+    private String stage;
+    private DataDescriptor data;
+    private String node;
+
+    public UploadSession() {
+        this.creation = this.modification = System.currentTimeMillis();
+        this.size = -1;
+        this.offset = 0;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public String getParent() {
+        return parent;
+    }
+
+    public void setParent(String parent) {
+        this.parent = parent;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public void setSize(long size) {
+        this.size = size;
+    }
+
+    public String getHash() {
+        return hash;
+    }
+
+    public void setHash(String hash) {
+        this.hash = hash;
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+
+    public void setOffset(long offset) {
+        this.offset = offset;
+    }
+
+    public long getCreation() {
+        return creation;
+    }
+
+    public void setCreation(long creation) {
+        this.creation = creation;
+    }
+
+    public long getModification() {
+        return modification;
+    }
+
+    public void setModification(long modification) {
+        this.modification = modification;
+    }
+
+    @JsonIgnore
+    public String getStage() {
+        return stage;
+    }
+
+    public void setStage(String stage) {
+        this.stage = stage;
+    }
+
+    /**
+     * @return the committed content, set once the staging area has been committed, so that a completion failing on the
+     * node creation can be retried
+     */
+    @JsonIgnore
+    public DataDescriptor getData() {
+        return data;
+    }
+
+    public void setData(DataDescriptor data) {
+        this.data = data;
+    }
+
+    public String getNode() {
+        return node;
+    }
+
+    public void setNode(String node) {
+        this.node = node;
+    }
+
+    public boolean isComplete() {
+        return size < 0 || offset == size;
+    }
+
+    @Override
+    public String toString() {
+        return "UploadSession{" +
+                "id='" + id + '\'' +
+                ", parent='" + parent + '\'' +
+                ", name='" + name + '\'' +
+                ", size=" + size +
+                ", hash='" + hash + '\'' +
+                ", offset=" + offset +
+                ", creation=" + creation +
+                ", modification=" + modification +
+                ", node='" + node + '\'' +
+                '}';
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2025 Jerome Blanchard <jayblanc@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package fr.jayblanc.mbyte.store.api.content;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author Jerome Blanchard
+ */
+public class ByteRangeTest {
+
+    private static final String ETAG = "\"abcdef\"";
+    private static final long MODIFICATION = 1700000000123L;
+
+    @Test
+    public void parseSingleRangeTest() {
+        List<ByteRange> ranges = ByteRange.parse("bytes=0-99", 1000);
+        assertEquals(1, ranges.size());
+        assertEquals(0, ranges.get(0).getStart());
+        assertEquals(99, ranges.get(0).getEnd());
+        assertEquals(100, ranges.get(0).getLength());
+        assertEquals("bytes 0-99/1000", ranges.get(0).toContentRange(1000));
+
+        ranges = ByteRange.parse("bytes=900-2000", 1000);
+        assertEquals(999, ranges.get(0).getEnd());
+    }
+
+    @Test
+    public void parseSuffixRangeTest() {
+        List<ByteRange> ranges = ByteRange.parse("bytes=-100", 1000);
+        assertEquals(1, ranges.size());
+        assertEquals(900, ranges.get(0).getStart());
+        assertEquals(999, ranges.get(0).getEnd());
+
+        ranges = ByteRange.parse("bytes=-5000", 1000);
+        assertEquals(0, ranges.get(0).getStart());
+        assertEquals(999, ranges.get(0).getEnd());
+    }
+
+    @Test
+    public void parseOpenEndedRangeTest() {
+        List<ByteRange> ranges = ByteRange.parse("bytes=500-", 1000);
+        assertEquals(1, ranges.size());
+        assertEquals(500, ranges.get(0).getStart());
+        assertEquals(999, ranges.get(0).getEnd());
+    }
+
+    @Test
+    public void parseUnsatisfiableRangeTest() {
+        assertTrue(ByteRange.parse("bytes=1000-1100", 1000).isEmpty());
+        assertTrue(ByteRange.parse("bytes=-0", 1000).isEmpty());
+        assertTrue(ByteRange.parse("bytes=-10", 0).isEmpty());
+        assertTrue(ByteRange.parse("bytes=0-", 0).isEmpty());
+        assertEquals("bytes */1000", ByteRange.unsatisfiedContentRange(1000));
+    }
+
+    @Test
+    public void parseMultipleRangesTest() {
+        List<ByteRange> ranges = ByteRange.parse("bytes=0-9, 20-29,-5", 100);
+        assertEquals(3, ranges.size());
+        assertEquals(0, ranges.get(0).getStart());
+        assertEquals(20, ranges.get(1).getStart());
+        assertEquals(95, ranges.get(2).getStart());
+
+        ranges = ByteRange.parse("bytes=0-9,200-300", 100);
+        assertEquals(1, ranges.size());
+        assertEquals(9, ranges.get(0).getEnd());
+
+        assertNull(ByteRange.parse("bytes=" + "0-1,".repeat(ByteRange.MAX_RANGES) + "2-3", 100));
+    }
+
+    @Test
+    public void parseMalformedRangeTest() {
+        assertNull(ByteRange.parse(null, 1000));
+        assertNull(ByteRange.parse("items=0-10", 1000));
+        assertNull(ByteRange.parse("bytes=10", 1000));
+        assertNull(ByteRange.parse("bytes=a-b", 1000));
+        assertNull(ByteRange.parse("bytes=20-10", 1000));
+        assertNull(ByteRange.parse("bytes=--10", 1000));
+        assertNull(ByteRange.parse("bytes=0-9,x", 1000));
+    }
+
+    @Test
+    public void ifRangeEtagTest() {
+        assertTrue(ByteRange.ifRange(null, ETAG, MODIFICATION));
+        assertTrue(ByteRange.ifRange(" ", ETAG, MODIFICATION));
+        assertTrue(ByteRange.ifRange(ETAG, ETAG, MODIFICATION));
+        assertFalse(ByteRange.ifRange("\"other\"", ETAG, MODIFICATION));
+        assertFalse(ByteRange.ifRange("W/" + ETAG, ETAG, MODIFICATION));
+    }
+
+    @Test
+    public void ifRangeDateTest() {
+        String date = ByteRange.httpDate(MODIFICATION);
+        assertEquals("Tue, 14 Nov 2023 22:13:20 GMT", date);
+        assertTrue(ByteRange.ifRange(date, ETAG, MODIFICATION));
+        assertFalse(ByteRange.ifRange(ByteRange.httpDate(MODIFICATION - 1000), ETAG, MODIFICATION));
+        assertFalse(ByteRange.ifRange(ByteRange.httpDate(MODIFICATION + 1000), ETAG, MODIFICATION));
+        assertFalse(ByteRange.ifRange("not a date", ETAG, MODIFICATION));
+    }
+
+}
@@ -16,18 +16,34 @@
  */
 package fr.jayblanc.mbyte.store.data;
 
+import fr.jayblanc.mbyte.store.data.chunk.FastCdcChunker;
+import fr.jayblanc.mbyte.store.data.compress.CompressedFile;
+import fr.jayblanc.mbyte.store.data.pack.PackStore;
 import fr.jayblanc.mbyte.store.data.exception.DataNotFoundException;
 import fr.jayblanc.mbyte.store.data.exception.DataStoreException;
+import fr.jayblanc.mbyte.store.data.hash.HashAlgorithm;
+import fr.jayblanc.mbyte.store.data.hash.HashedFilterInputStream;
 import io.quarkus.test.junit.QuarkusTest;
 import jakarta.inject.Inject;
+import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.io.IOUtils;
 import org.junit.jupiter.api.Test;
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.stream.Stream;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -42,9 +58,18 @@ public class DataStoreTest {
     @Inject
     DataStore store;
 
-    @Test
-    void testExists() {
+    @Inject
+    DataStoreConfig config;
 
+    @Inject
+    DataStoreMigrator migrator;
+
+    @Test
+    void testExists() throws DataStoreException {
+        String KEY = store.put(new ByteArrayInputStream("This is an exists test".getBytes()));
+        assertTrue(store.exists(KEY));
+        assertFalse(store.exists(DigestUtils.sha256Hex("This content is never stored")));
+        assertFalse(store.exists("ID_QUI_NEXISTE_PAS"));
     }
 
     @Test
@@ -64,6 +89,50 @@ public class DataStoreTest {
         assertEquals(content, retrieved);
     }
 
+    @Test
+    public void describedCreateFileTest() throws DataStoreException, DataNotFoundException {
+        LOGGER.log(Level.INFO, "Starting Described Create File Test");
+        String content = "This is a described test";
+
+        DataDescriptor descriptor = store.put(new ByteArrayInputStream(content.getBytes()), "test.txt");
+        assertNotNull(descriptor.getKey());
+        assertEquals(DigestUtils.sha256Hex(content), descriptor.getKey());
+        assertEquals(content.length(), descriptor.getSize());
+        assertEquals("text/plain", descriptor.getType());
+        assertEquals(store.size(descriptor.getKey()), descriptor.getSize());
+    }
+
+    @Test
+    public void rangeReadFileTest() throws DataStoreException, DataNotFoundException, IOException {
+        LOGGER.log(Level.INFO, "Starting Range Read File Test");
+        String content = "0123456789abcdefghij";
+        String KEY = store.put(new ByteArrayInputStream(content.getBytes()));
+
+        assertEquals("56789", new String(IOUtils.toByteArray(store.get(KEY, 5, 5))));
+        assertEquals("fghij", new String(IOUtils.toByteArray(store.get(KEY, 15, 100))));
+        assertEquals("", new String(IOUtils.toByteArray(store.get(KEY, 30, 10))));
+        assertThrows(DataStoreException.class, () -> store.get(KEY, -1, 10));
+    }
+
+    @Test
+    public void stagedCreateFileTest() throws DataStoreException, DataNotFoundException, IOException {
+        LOGGER.log(Level.INFO, "Starting Staged Create File Test");
+        String content = "This is a staged test sent in chunks";
+
+        String stage = store.stage();
+        assertEquals(0, store.staged(stage));
+        assertEquals(10, store.append(stage, 0, new ByteArrayInputStream(content.substring(0, 10).getBytes())));
+        assertThrows(DataStoreException.class, () -> store.append(stage, 5, new ByteArrayInputStream("bad".getBytes())));
+        assertEquals(content.length(), store.append(stage, 10, new ByteArrayInputStream(content.substring(10).getBytes())));
+
+        DataDescriptor descriptor = store.commit(stage, "staged.txt");
+        assertEquals(DigestUtils.sha256Hex(content), descriptor.getKey());
+        assertEquals(content.length(), descriptor.getSize());
+        assertEquals("text/plain", descriptor.getType());
+        assertEquals(content, new String(IOUtils.toByteArray(store.get(descriptor.getKey()))));
+        assertThrows(DataNotFoundException.class, () -> store.staged(stage));
+    }
+
     @Test
     public void getUnexistingFileTest() throws DataStoreException, DataNotFoundException, IOException {
         assertThrows(DataNotFoundException.class, () -> {
@@ -93,4 +162,222 @@ public class DataStoreTest {
         assertEquals(KEY, KEY2);
     }
 
+    @Test
+    public void shardedLayoutTest() throws DataStoreException {
+        String content = "This is a sharded test";
+        String KEY = store.put(new ByteArrayInputStream(content.getBytes()));
+        Path base = Paths.get(config.home());
+        assertTrue(Files.exists(base.resolve(KEY.substring(0, 2)).resolve(KEY.substring(2, 4)).resolve(KEY)));
+        assertFalse(Files.exists(base.resolve(KEY)));
+    }
+
+    @Test
+    public void reuseTest() throws DataStoreException, DataNotFoundException {
+        String content = "This is a reuse test";
+        String KEY = store.put(new ByteArrayInputStream(content.getBytes()));
+        DataDescriptor descriptor = store.reuse(KEY, "reuse.txt");
+        assertEquals(KEY, descriptor.getKey());
+        assertEquals(content.length(), descriptor.getSize());
+        assertEquals("text/plain", descriptor.getType());
+        assertThrows(DataNotFoundException.class, () -> store.reuse(DigestUtils.sha256Hex("not stored"), null));
+    }
+
+    @Test
+    public void fileAccessTest() throws DataStoreException, DataNotFoundException, IOException {
+        String content = "This is a file access test";
+        String KEY = store.put(new ByteArrayInputStream(content.getBytes()));
+        Path file = store.file(KEY);
+        assertNotNull(file);
+        assertEquals(content, Files.readString(file));
+        assertThrows(DataNotFoundException.class, () -> store.file("ID_QUI_NEXISTE_PAS"));
+    }
+
+    @Test
+    public void legacyLayoutMigrationTest() throws DataStoreException, DataNotFoundException, IOException {
+        LOGGER.log(Level.INFO, "Starting Legacy Layout Migration Test");
+        String content = "This is a legacy flat stored test";
+        String KEY = DigestUtils.sha256Hex(content);
+        Path base = Paths.get(config.home());
+        Path legacy = base.resolve(KEY);
+        Files.write(legacy, content.getBytes());
+
+        assertTrue(store.exists(KEY));
+        assertEquals(content.length(), store.size(KEY));
+
+        assertTrue(migrator.migrate() >= 1);
+        assertFalse(Files.exists(legacy));
+        assertTrue(store.exists(KEY));
+        String retrieved = new String(IOUtils.toByteArray(store.get(KEY)));
+        assertEquals(content, retrieved);
+    }
+
+    @Test
+    public void deleteTest() throws DataStoreException {
+        String content = "This is a delete test";
+        long before = System.currentTimeMillis() - 60000;
+        String KEY = store.put(new ByteArrayInputStream(content.getBytes()));
+        try (Stream<String> keys = store.keys()) {
+            assertTrue(keys.anyMatch(KEY::equals));
+        }
+        assertFalse(store.delete(KEY, before));
+        assertTrue(store.exists(KEY));
+        assertTrue(store.delete(KEY, Long.MAX_VALUE));
+        assertFalse(store.exists(KEY));
+        store.delete(KEY);
+    }
+
+    @Test
+    public void extractedTextCacheTest() throws DataStoreException, DataNotFoundException {
+        String content = "This is an extracted text cache test";
+        String KEY = store.put(new ByteArrayInputStream(content.getBytes()));
+        Path text = DataStoreLayout.text(Paths.get(config.home()), KEY, DataStoreBean.EXTRACTOR_VERSION);
+        assertEquals(content, store.extract(KEY, "text.txt", "text/plain").trim());
+        assertTrue(Files.exists(text));
+        assertEquals(content, store.extract(KEY, "text.txt", "text/plain").trim());
+        store.delete(KEY);
+        assertFalse(Files.exists(text));
+        assertThrows(DataNotFoundException.class, () -> store.extract(KEY, "text.txt", "text/plain"));
+    }
+
+    @Test
+    public void cachedReadTest() throws DataStoreException, DataNotFoundException, IOException {
+        String content = "This is a cached read test";
+        String KEY = store.put(new ByteArrayInputStream(content.getBytes()));
+        for (int i = 0; i < 3; i++) {
+            try (InputStream is = store.get(KEY)) {
+                assertEquals(content, new String(is.readAllBytes()));
+            }
+            try (InputStream is = store.get(KEY, 10, 6)) {
+                assertEquals("cached", new String(is.readAllBytes()));
+            }
+        }
+        assertTrue(store.delete(KEY, Long.MAX_VALUE));
+        assertThrows(DataNotFoundException.class, () -> store.get(KEY));
+    }
+
+    @Test
+    public void verifyTest() throws DataStoreException, DataNotFoundException, IOException {
+        String content = "This is a verify test";
+        String KEY = store.put(new ByteArrayInputStream(content.getBytes()));
+        assertTrue(store.verify(KEY));
+        Path file = store.file(KEY);
+        Files.writeString(file, "This is a corrupted test");
+        assertFalse(store.verify(KEY));
+        assertThrows(DataNotFoundException.class, () -> store.verify("ID_QUI_NEXISTE_PAS"));
+        store.delete(KEY);
+    }
+
+    @Test
+    public void hashAlgorithmTest() throws IOException {
+        for (HashAlgorithm algorithm : HashAlgorithm.values()) {
+            try (HashedFilterInputStream his = HashedFilterInputStream.of(new ByteArrayInputStream("This is a hash test".getBytes()), algorithm)) {
+                his.readAllBytes();
+                String key = his.getHash();
+                assertEquals(algorithm, HashAlgorithm.forKey(key));
+                assertTrue(DataStoreLayout.isKey(key));
+                assertTrue(DataStoreLayout.blob(Paths.get("base"), key).startsWith(Paths.get("base", key.substring(key.length() - 64, key.length() - 62))));
+            }
+        }
+        assertEquals(DigestUtils.sha256Hex("This is a hash test"), HashAlgorithm.SHA256.key(DigestUtils.sha256("This is a hash test")));
+        assertNull(HashAlgorithm.forKey("ID_QUI_NEXISTE_PAS"));
+    }
+
+    @Test
+    public void compressedFileTest() throws IOException {
+        byte[] content = "This is a compressed file test line\n".repeat(1000).getBytes();
+        byte[] random = new byte[content.length];
+        new Random(42).nextBytes(random);
+        assertTrue(CompressedFile.ratio(content, 6) < 0.1);
+        assertTrue(CompressedFile.ratio(random, 6) > 0.9);
+
+        Path source = Files.createTempFile("source", null);
+        Path target = Files.createTempFile("target", null);
+        try {
+            Files.write(source, content);
+            CompressedFile.write(source, target, 6);
+            assertTrue(Files.size(target) < content.length);
+            assertEquals(content.length, CompressedFile.size(target));
+            try (InputStream is = CompressedFile.open(target, 0)) {
+                assertArrayEquals(content, is.readAllBytes());
+            }
+            try (InputStream is = CompressedFile.open(target, 100)) {
+                assertArrayEquals(Arrays.copyOfRange(content, 100, 150), is.readNBytes(50));
+            }
+            try (InputStream is = CompressedFile.open(target, content.length + 100)) {
+                assertEquals(0, is.readAllBytes().length);
+            }
+        } finally {
+            Files.deleteIfExists(source);
+            Files.deleteIfExists(target);
+        }
+    }
+
+    @Test
+    public void packStoreTest() throws IOException {
+        Path folder = Files.createTempDirectory("packs");
+        Path source = Files.createTempFile("source", null);
+        PackStore packs = new PackStore(folder, 64);
+        packs.load();
+        for (int i = 0; i < 10; i++) {
+            Files.writeString(source, "packed blob " + i);
+            packs.put("key" + i, source);
+        }
+        try (InputStream is = packs.open("key3", 7)) {
+            assertEquals("blob 3", new String(is.readAllBytes()));
+        }
+        for (int i = 0; i < 8; i++) {
+            assertTrue(packs.delete("key" + i));
+        }
+        assertTrue(packs.compact(0.5) > 0);
+        assertTrue(packs.touch("key9"));
+        long touched = packs.modified("key9");
+        packs.close();
+
+        PackStore reloaded = new PackStore(folder, 64);
+        reloaded.load();
+        assertEquals(Set.of("key8", "key9"), reloaded.keys());
+        assertEquals(13, reloaded.size("key9"));
+        assertEquals(touched, reloaded.modified("key9"));
+        try (InputStream is = reloaded.open("key8", 0)) {
+            assertEquals("packed blob 8", new String(is.readAllBytes()));
+        }
+        reloaded.close();
+    }
+
+    @Test
+    public void purgeWithoutPacksTest() throws Exception {
+        assertFalse(config.packing().enabled());
+        PackStore packs = new PackStore(Files.createTempDirectory("packs").resolve("missing"), 64);
+        assertEquals(0, packs.compact(0.5));
+        assertTrue(store.purge(0) >= 0);
+    }
+
+    @Test
+    public void contentDefinedChunkingTest() throws IOException {
+        byte[] content = new byte[1024 * 1024];
+        new Random(42).nextBytes(content);
+        List<String> chunks = chunk(content);
+        byte[] shifted = new byte[content.length + 100];
+        System.arraycopy(content, 0, shifted, 100, content.length);
+        List<String> shiftedChunks = chunk(shifted);
+        long shared = shiftedChunks.stream().filter(chunks::contains).count();
+        LOGGER.log(Level.INFO, "Chunks: " + chunks.size() + ", shared after shift: " + shared);
+        assertTrue(chunks.size() > 1);
+        assertTrue(shared >= chunks.size() - 2);
+    }
+
+    private List<String> chunk(byte[] content) throws IOException {
+        List<String> hashes = new ArrayList<>();
+        ByteArrayOutputStream rebuilt = new ByteArrayOutputStream();
+        FastCdcChunker chunker = new FastCdcChunker(new ByteArrayInputStream(content), 16384, 65536, 262144);
+        byte[] chunk;
+        while ( (chunk = chunker.next()) != null ) {
+            assertTrue(chunk.length <= 262144);
+            hashes.add(DigestUtils.sha256Hex(chunk));
+            rebuilt.write(chunk);
+        }
+        assertArrayEquals(content, rebuilt.toByteArray());
+        return hashes;
+    }
+
 }
@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2025 Jerome Blanchard <jayblanc@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package fr.jayblanc.mbyte.store.files;
+
+import fr.jayblanc.mbyte.store.files.entity.Node;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author Jerome Blanchard
+ */
+public class FileServiceTest {
+
+    private final FileServiceBean service = new FileServiceBean();
+
+    @Test
+    public void cursorRoundTripTest() {
+        Node node = new Node(Node.Type.BLOB, "parent", "id-1", "naïve name.txt");
+        node.setSize(1024);
+        node.setModification(1700000000000L);
+        assertArrayEquals(new Object[] {"naïve name.txt", "id-1"}, FileServiceBean.decodeCursor(service.cursor(node, FileService.Sort.NAME), FileService.Sort.NAME));
+        assertArrayEquals(new Object[] {1024L, "id-1"}, FileServiceBean.decodeCursor(service.cursor(node, FileService.Sort.SIZE), FileService.Sort.SIZE));
+        assertArrayEquals(new Object[] {1700000000000L, "id-1"}, FileServiceBean.decodeCursor(service.cursor(node, FileService.Sort.MODIFICATION), FileService.Sort.MODIFICATION));
+        assertArrayEquals(new Object[] {Node.Type.BLOB, "naïve name.txt", "id-1"}, FileServiceBean.decodeCursor(service.cursor(node, FileService.Sort.TYPE), FileService.Sort.TYPE));
+    }
+
+    @Test
+    public void invalidCursorTest() {
+        Node node = new Node(Node.Type.BLOB, "parent", "id-1", "name");
+        String cursor = service.cursor(node, FileService.Sort.NAME);
+        assertThrows(IllegalArgumentException.class, () -> FileServiceBean.decodeCursor(cursor, FileService.Sort.TYPE));
+        assertThrows(IllegalArgumentException.class, () -> FileServiceBean.decodeCursor(cursor, FileService.Sort.SIZE));
+        assertThrows(IllegalArgumentException.class, () -> FileServiceBean.decodeCursor("not a cursor!", FileService.Sort.NAME));
+    }
+
+    @Test
+    public void keysetTieBreakingTest() {
+        Map<String, Object> params = new HashMap<>();
+        String condition = FileServiceBean.keyset(FileServiceBean.sortFields(FileService.Sort.NAME), new Object[] {"same", "id-2"}, 0, false, params);
+        assertEquals("(n.name > :k0 OR (n.name = :k0 AND n.id > :k1))", condition);
+        assertEquals(Map.of("k0", "same", "k1", "id-2"), params);
+
+        params.clear();
+        condition = FileServiceBean.keyset(FileServiceBean.sortFields(FileService.Sort.SIZE), new Object[] {10L, "id-2"}, 0, true, params);
+        assertEquals("(n.size < :k0 OR (n.size = :k0 AND n.id < :k1))", condition);
+
+        params.clear();
+        condition = FileServiceBean.keyset(FileServiceBean.sortFields(FileService.Sort.TYPE), new Object[] {Node.Type.BLOB, "same", "id-2"}, 0, false, params);
+        assertEquals("(n.type IN :k0n OR (n.type = :k0 AND (n.name > :k1 OR (n.name = :k1 AND n.id > :k2))))", condition);
+        assertEquals(List.of(Node.Type.TREE), params.get("k0n"));
+
+        params.clear();
+        condition = FileServiceBean.keyset(FileServiceBean.sortFields(FileService.Sort.TYPE), new Object[] {Node.Type.TREE, "same", "id-2"}, 0, false, params);
+        assertEquals("(n.type = :k0 AND (n.name > :k1 OR (n.name = :k1 AND n.id > :k2)))", condition);
+        assertFalse(params.containsKey("k0n"));
+    }
+
+    @Test
+    public void archiveNameTest() {
+        assertEquals("report.txt", FileServiceBean.archiveName("report.txt"));
+        assertEquals(".._.._etc_passwd", FileServiceBean.archiveName("../../etc/passwd"));
+        assertEquals("a_b_c", FileServiceBean.archiveName("a\\b/c"));
+        assertEquals("line_break", FileServiceBean.archiveName("line\nbreak"));
+        assertEquals("_", FileServiceBean.archiveName(".."));
+        assertEquals("_", FileServiceBean.archiveName("."));
+    }
+
+}